@@ -0,0 +1,82 @@
+/*
+ * GridBenchmark.java
+ *
+ * Times building the navigation structures for a level and resetting the
+ * grid between searches.  Run it with "gradlew benchmark:jmh", which adds the
+ * GC profiler so that every result also shows the allocation rate.
+ */
+package edu.cornell.gdiac.b2lights.benchmark;
+
+import edu.cornell.gdiac.b2lights.Grid;
+import edu.cornell.gdiac.b2lights.HierarchicalPathfinder;
+import edu.cornell.gdiac.b2lights.LevelModel;
+import edu.cornell.gdiac.b2lights.QuadGrid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times the construction of the grids and hierarchy that a level builds
+ *
+ * These are what {@link LevelModel#populate} builds whenever the navigation
+ * cache misses, so they bound the cost of loading a changed level.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GridBenchmark {
+
+    /**
+     * Rasterizes the walls into a grid, with its clearance and regions
+     *
+     * @param layout The walls to rasterize
+     * @return the new grid
+     */
+    @Benchmark
+    public Grid construct(NavLayout layout) {
+        return new Grid(layout.bounds, LevelModel.NAV_CELLS_PER_UNIT, layout.boxes);
+    }
+
+    /**
+     * Builds the variable-resolution grid over the same walls
+     *
+     * @param layout The walls to build over
+     * @return the new grid
+     */
+    @Benchmark
+    public QuadGrid constructQuadGrid(NavLayout layout) {
+        return new QuadGrid(layout.bounds, LevelModel.NAV_CELLS_PER_UNIT, layout.boxes);
+    }
+
+    /**
+     * Builds the cluster hierarchy over an existing grid
+     *
+     * The hierarchy stops listening to the grid afterwards, so that the
+     * grid's listener list does not grow with every invocation.
+     *
+     * @param layout The grid to build over
+     * @return the new hierarchy
+     */
+    @Benchmark
+    public HierarchicalPathfinder constructHierarchy(NavLayout layout) {
+        HierarchicalPathfinder hierarchy = new HierarchicalPathfinder(layout.grid, LevelModel.NAV_CLUSTER_SIZE);
+        layout.grid.removeChangeListener(hierarchy);
+        return hierarchy;
+    }
+
+    /**
+     * Clears the pathfinding marks, as every AI search does first
+     *
+     * @param layout The grid to clear
+     * @return the cleared grid
+     */
+    @Benchmark
+    public Grid clearMarks(NavLayout layout) {
+        layout.grid.clearMarks();
+        return layout.grid;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * NavLayout.java
+ *
+ * The wall layouts shared by the navigation benchmarks.  Levels are read
+ * straight from their JSON, so no window, physics world or asset manager is
+ * needed.  The benchmarks run with the assets folder as working directory.
+ */
+package edu.cornell.gdiac.b2lights.benchmark;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.JsonReader;
+import com.badlogic.gdx.utils.JsonValue;
+import edu.cornell.gdiac.b2lights.Grid;
+import edu.cornell.gdiac.b2lights.LevelModel;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * A level's walls, its grid, and a fixed set of path queries on it
+ *
+ * The layout is either the real level, tiled {@link #scale} times along each
+ * side, or random boxes over the same area covering a given share of it.
+ * Only the interior walls of a level are read, as those are the ones
+ * {@link Grid} rasterizes. Everything is seeded, so every run and every
+ * benchmark sees the same walls and queries.
+ */
+@State(Scope.Benchmark)
+public class NavLayout {
+    /** The level file, relative to the assets folder */
+    public static final String LEVEL_FILE = "jsons/level.json";
+    /** The number of path queries to cycle through */
+    public static final int QUERIES = 256;
+    /** The seed for the random walls and queries */
+    private static final long SEED = 0x5eed;
+
+    /** The walls: "level", or "random-" followed by the share of area covered */
+    @Param({"level", "random-0.1", "random-0.3"})
+    public String walls;
+    /** The number of copies of the level area along each side */
+    @Param({"1", "4", "8"})
+    public int scale;
+
+    /** The world bounds in physics units */
+    public Rectangle bounds;
+    /** The walls, as center x, center y, width, height in turn */
+    public FloatArray boxes;
+    /** The grid over the walls, at the level resolution */
+    public Grid grid;
+    /** The radius of the level's guard (in physics units) */
+    public float guardRadius;
+    /** The queries, as start x, start y, goal x, goal y in turn (in grid cells) */
+    public int[] queries;
+
+    /**
+     * Reads or generates the walls and builds the grid
+     */
+    @Setup
+    public void setup() {
+        JsonValue level = new JsonReader().parse(new FileHandle(LEVEL_FILE));
+        float[] size = level.get("physicsSize").asFloatArray();
+        bounds = new Rectangle(0, 0, size[0] * scale, size[1] * scale);
+        guardRadius = level.get("guard").getFloat("radius");
+
+        Random random = new Random(SEED);
+        if (walls.equals("level")) {
+            boxes = tileLevel(level, size[0], size[1], scale);
+        } else if (walls.startsWith("random-")) {
+            float density = Float.parseFloat(walls.substring("random-".length()));
+            boxes = randomBoxes(bounds, density, random);
+        } else {
+            throw new IllegalArgumentException("Unknown wall layout " + walls);
+        }
+
+        grid = new Grid(bounds, LevelModel.NAV_CELLS_PER_UNIT, boxes);
+        queries = makeQueries(grid, random);
+    }
+
+    /**
+     * Returns the interior walls of a level repeated over a square of copies
+     *
+     * @param level  The level JSON
+     * @param width  The width of the level (in physics units)
+     * @param height The height of the level (in physics units)
+     * @param copies The number of copies along each side
+     * @return the walls, as center x, center y, width, height in turn
+     */
+    private static FloatArray tileLevel(JsonValue level, float width, float height, int copies) {
+        FloatArray boxes = new FloatArray();
+        for (int tx = 0; tx < copies; tx++) {
+            for (int ty = 0; ty < copies; ty++) {
+                for (JsonValue wall = level.getChild("interior"); wall != null; wall = wall.next()) {
+                    float[] pos = wall.get("pos").asFloatArray();
+                    float[] dim = wall.get("size").asFloatArray();
+                    boxes.add(pos[0] + tx * width, pos[1] + ty * height, dim[0], dim[1]);
+                }
+            }
+        }
+        return boxes;
+    }
+
+    /**
+     * Returns random wall boxes covering about the given share of the bounds
+     *
+     * The boxes are wall-like: thin in one direction and up to a few units
+     * long in the other.
+     *
+     * @param bounds  The world bounds in physics units
+     * @param density The share of the area to cover
+     * @param random  The source of the boxes
+     * @return the walls, as center x, center y, width, height in turn
+     */
+    private static FloatArray randomBoxes(Rectangle bounds, float density, Random random) {
+        FloatArray boxes = new FloatArray();
+        float area = 0;
+        while (area < density * bounds.width * bounds.height) {
+            float length = 0.5f + 3.0f * random.nextFloat();
+            float thickness = 0.5f;
+            boolean across = random.nextBoolean();
+            float w = across ? length : thickness;
+            float h = across ? thickness : length;
+            float x = bounds.x + w / 2 + random.nextFloat() * (bounds.width - w);
+            float y = bounds.y + h / 2 + random.nextFloat() * (bounds.height - h);
+            boxes.add(x, y, w, h);
+            area += w * h;
+        }
+        return boxes;
+    }
+
+    /**
+     * Returns random pairs of open cells that can reach each other
+     *
+     * @param grid   The grid to pick cells on
+     * @param random The source of the cells
+     * @return the queries, as start x, start y, goal x, goal y in turn
+     */
+    private static int[] makeQueries(Grid grid, Random random) {
+        int[] queries = new int[4 * QUERIES];
+        int ii = 0;
+        while (ii < queries.length) {
+            int sx = random.nextInt(grid.getWidth());
+            int sy = random.nextInt(grid.getHeight());
+            int gx = random.nextInt(grid.getWidth());
+            int gy = random.nextInt(grid.getHeight());
+            if (!grid.isWall(sx, sy) && sx != gx && grid.canReach(sx, sy, gx, gy)) {
+                queries[ii++] = sx;
+                queries[ii++] = sy;
+                queries[ii++] = gx;
+                queries[ii++] = gy;
+            }
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * PathQueryBenchmark.java
+ *
+ * Times one path query for each of the planners, on the layouts in
+ * NavLayout.  Run it with "gradlew benchmark:jmh", which adds the GC profiler
+ * so that every result also shows the allocation rate per query.
+ */
+package edu.cornell.gdiac.b2lights.benchmark;
+
+import com.badlogic.gdx.ai.pfa.DefaultGraphPath;
+import com.badlogic.gdx.ai.pfa.indexed.IndexedAStarPathFinder;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import edu.cornell.gdiac.b2lights.AStarPathfinder;
+import edu.cornell.gdiac.b2lights.BitFlood;
+import edu.cornell.gdiac.b2lights.FlowField;
+import edu.cornell.gdiac.b2lights.Grid;
+import edu.cornell.gdiac.b2lights.GridGraph;
+import edu.cornell.gdiac.b2lights.HierarchicalPathfinder;
+import edu.cornell.gdiac.b2lights.IncrementalPlanner;
+import edu.cornell.gdiac.b2lights.LevelModel;
+import edu.cornell.gdiac.b2lights.NavMesh;
+import edu.cornell.gdiac.b2lights.QuadGrid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times a single path query for every planner on the same grids
+ *
+ * Each invocation answers the next query in {@link NavLayout#queries}, so a
+ * result is the rate of random queries between reachable cells. Searches
+ * use 4-way movement and reuse their output arrays, as the game does, so
+ * any allocation the GC profiler reports comes from the planner itself.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathQueryBenchmark {
+    /** The grid being searched */
+    private Grid grid;
+    /** The queries, as start x, start y, goal x, goal y in turn */
+    private int[] queries;
+    /** The offset of the next query */
+    private int next;
+
+    /** The incremental (D* Lite) planner */
+    private IncrementalPlanner planner;
+    /** The plain (and jump point) A* search */
+    private AStarPathfinder astar;
+    /** The cluster hierarchy over the grid */
+    private HierarchicalPathfinder hierarchy;
+    /** The breadth-first flood over the wall bitboard */
+    private BitFlood flood;
+    /** The flow field shared by guards chasing one player */
+    private FlowField field;
+    /** The gdx-ai graph over the grid */
+    private GridGraph graph;
+    /** The gdx-ai search over the graph */
+    private IndexedAStarPathFinder<GridGraph.Node> finder;
+    /** The variable-resolution grid over the same walls */
+    private QuadGrid quadGrid;
+    /** The navigation mesh over the same walls */
+    private NavMesh navMesh;
+
+    /** The cell path output */
+    private IntArray path = new IntArray();
+    /** The physics path output */
+    private FloatArray points = new FloatArray();
+    /** The gdx-ai path output */
+    private DefaultGraphPath<GridGraph.Node> graphPath = new DefaultGraphPath<GridGraph.Node>();
+
+    /**
+     * Builds every planner over the layout
+     *
+     * @param layout The walls, grid and queries to use
+     */
+    @Setup
+    public void setup(NavLayout layout) {
+        grid = layout.grid;
+        queries = layout.queries;
+        next = 0;
+
+        planner = new IncrementalPlanner(grid);
+        astar = new AStarPathfinder(grid);
+        hierarchy = new HierarchicalPathfinder(grid, LevelModel.NAV_CLUSTER_SIZE);
+        flood = new BitFlood(grid);
+        field = new FlowField(grid);
+        graph = new GridGraph(grid, false);
+        finder = new IndexedAStarPathFinder<GridGraph.Node>(graph);
+        quadGrid = new QuadGrid(layout.bounds, LevelModel.NAV_CELLS_PER_UNIT, layout.boxes);
+
+        Array<float[]> walls = new Array<float[]>();
+        for (int ii = 0; ii + 3 < layout.boxes.size; ii += 4) {
+            float x0 = layout.boxes.get(ii) - layout.boxes.get(ii + 2) / 2;
+            float y0 = layout.boxes.get(ii + 1) - layout.boxes.get(ii + 3) / 2;
+            float x1 = layout.boxes.get(ii) + layout.boxes.get(ii + 2) / 2;
+            float y1 = layout.boxes.get(ii + 1) + layout.boxes.get(ii + 3) / 2;
+            walls.add(new float[] {x0, y0, x1, y0, x1, y1, x0, y1});
+        }
+        navMesh = new NavMesh(layout.bounds, walls, layout.guardRadius);
+    }
+
+    /**
+     * Advances to the next query, wrapping around at the end
+     *
+     * @return the offset of the query in the array
+     */
+    private int nextQuery() {
+        int query = next;
+        next = (next + 4) % queries.length;
+        return query;
+    }
+
+    /**
+     * Asks the incremental planner for the first step toward a new goal
+     *
+     * This is the planner on its own. It is not a measure of AIController,
+     * which the game does not use: guards search with the A* and jump point
+     * modes below (through the path services) and chase on the flow field.
+     * The marks are cleared and the goal marked first, as a caller would.
+     *
+     * @return the cell of the first step
+     */
+    @Benchmark
+    public int incrementalPlanner() {
+        int q = nextQuery();
+        grid.clearMarks();
+        grid.setGoal(queries[q + 2], queries[q + 3]);
+        return planner.findNextStep(queries[q], queries[q + 1], queries[q + 2], queries[q + 3]);
+    }
+
+    /**
+     * Finds a full path with plain A*
+     *
+     * @return the path
+     */
+    @Benchmark
+    public IntArray astar() {
+        int q = nextQuery();
+        astar.findPath(queries[q], queries[q + 1], queries[q + 2], queries[q + 3],
+                AStarPathfinder.Mode.CELL, path);
+        return path;
+    }
+
+    /**
+     * Finds a full path with jump point search
+     *
+     * @return the path
+     */
+    @Benchmark
+    public IntArray jumpPoint() {
+        int q = nextQuery();
+        astar.findPath(queries[q], queries[q + 1], queries[q + 2], queries[q + 3],
+                AStarPathfinder.Mode.JUMP_POINT, path);
+        return path;
+    }
+
+    /**
+     * Finds a full path through the cluster hierarchy
+     *
+     * @return the path
+     */
+    @Benchmark
+    public IntArray hierarchical() {
+        int q = nextQuery();
+        hierarchy.findPath(queries[q], queries[q + 1], queries[q + 2], queries[q + 3], path);
+        return path;
+    }
+
+    /**
+     * Finds the path length with a breadth-first flood
+     *
+     * @return the number of steps to the goal
+     */
+    @Benchmark
+    public int bitFlood() {
+        int q = nextQuery();
+        return flood.getDistance(queries[q], queries[q + 1], queries[q + 2], queries[q + 3], Integer.MAX_VALUE);
+    }
+
+    /**
+     * Rebuilds the flow field for a new target and reads one step from it
+     *
+     * @return the cell of the first step
+     */
+    @Benchmark
+    public int flowField() {
+        int q = nextQuery();
+        field.update(queries[q + 2], queries[q + 3]);
+        return field.getNextStep(queries[q], queries[q + 1]);
+    }
+
+    /**
+     * Finds a full path with gdx-ai's indexed A*
+     *
+     * @return the path
+     */
+    @Benchmark
+    public DefaultGraphPath<GridGraph.Node> gdxAi() {
+        int q = nextQuery();
+        graphPath.clear();
+        finder.searchNodePath(graph.getNode(queries[q], queries[q + 1]),
+                graph.getNode(queries[q + 2], queries[q + 3]), graph.getHeuristic(), graphPath);
+        return graphPath;
+    }
+
+    /**
+     * Finds a path across the variable-resolution grid
+     *
+     * @return the path
+     */
+    @Benchmark
+    public FloatArray quadGrid() {
+        int q = nextQuery();
+        quadGrid.findPath(queries[q], queries[q + 1], queries[q + 2], queries[q + 3], points);
+        return points;
+    }
+
+    /**
+     * Finds a path across the navigation mesh between the same cell centers
+     *
+     * @return the path
+     */
+    @Benchmark
+    public FloatArray navMesh() {
+        int q = nextQuery();
+        navMesh.findPath(grid.gridToPhysicsX(queries[q]), grid.gridToPhysicsY(queries[q + 1]),
+                grid.gridToPhysicsX(queries[q + 2]), grid.gridToPhysicsY(queries[q + 3]), points);
+        return points;
+    }
+}
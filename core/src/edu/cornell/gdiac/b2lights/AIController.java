@@ -59,6 +59,9 @@ public class AIController {
     /**
      * Marks on the grid the goal tile for the BFS search
      *
+     * Any marks left over from the previous search are cleared first. This is
+     * constant time, so a search only costs as much as the area it explores.
+     *
      * @param targetX x-coordinate of the goal tile (in screen coordinates)
      * @param targetY y-coordinate of the goal tile (in screen coordinates)
      */
@@ -68,6 +71,7 @@ public class AIController {
         int targetGridX = grid.screenToGridX(targetX);
         int targetGridY = grid.screenToGridY(targetY);
         // Mark the goal tile on the grid
+        grid.clearMarks();
         grid.setGoal(targetGridX, targetGridY);
     }
 
@@ -116,7 +120,7 @@ public class AIController {
             for (int[] dir : DIRECTIONS) { // add neighbors to the queue
                 int dx = dir[0]; int dy = dir[1];
                 int newX = currX + dx; int newY = currY + dy;
-                if (grid.inBounds(newX, newY) && !grid.isWall(newX, newY) && grid.isVisited(newX, newY)) {
+                if (grid.inBounds(newX, newY) && !grid.isWall(newX, newY) && !grid.isVisited(newX, newY)) {
                     int[] neiCords = {newX, newY, firstStep};
                     queue.addLast(neiCords);
                     grid.setVisited(newX, newY);
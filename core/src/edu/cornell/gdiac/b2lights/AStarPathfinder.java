@@ -0,0 +1,676 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.utils.IntArray;
+import edu.cornell.gdiac.util.IntBinaryHeap;
+
+import java.util.Arrays;
+
+/**
+ * A reusable A* search over the walls of a {@link Grid}
+ *
+ * All of the search state (path costs, parents, the open heap) lives in
+ * primitive arrays sized to the grid, allocated once when the pathfinder is
+ * created. The arrays are tagged with a search stamp rather than cleared, so
+ * a query only touches the cells it explores and produces no garbage.
+ *
+ * Cells are identified by their row-major index (see {@link Grid#index}).
+ * Diagonal moves are optional; when enabled, a diagonal step is only allowed
+ * if both orthogonal cells beside it are open, so agents never cut corners.
+ *
+ * Each query can run in {@link Mode#JUMP_POINT} mode instead of expanding
+ * every cell. Jump Point Search assumes uniform step costs (which the grid
+ * has) and skips over straight runs of open cells, only pushing the cells
+ * where the path could turn. It returns paths of the same cost as plain A*,
+ * but on large open rooms it expands orders of magnitude fewer nodes.
+ *
+ * An agent wider than one cell can set a minimum clearance (see
+ * {@link Grid#getClearance}); cells with less clearance are then treated as
+ * walls, which costs nothing extra per node.
+ *
+ * Grid paths move in 45 degree steps. For smoother motion, a path can be
+ * reduced to the few corners an agent must steer through with
+ * {@link #pullString}, using {@link Grid#hasLineOfSight} on the wall data.
+ *
+ * A search can also be run in slices: {@link #startSearch} sets it up and
+ * {@link #continueSearch} expands a bounded number of cells per call, so a
+ * long query can be spread over several frames.
+ */
+public class AStarPathfinder {
+
+    /** The distance estimate used to guide the search */
+    public enum Heuristic {
+        /** Sum of the axis distances (only admissible for 4-way movement) */
+        MANHATTAN,
+        /** Diagonal distance with sqrt(2) diagonal steps */
+        OCTILE
+    }
+
+    /** The way the search generates successors */
+    public enum Mode {
+        /** Expand every neighbouring cell (plain A*) */
+        CELL,
+        /** Jump over symmetric runs of open cells (Jump Point Search) */
+        JUMP_POINT
+    }
+
+    /** The progress of a resumable search */
+    public enum Status {
+        /** The search has frontier left to expand */
+        RUNNING,
+        /** The search reached the goal */
+        FOUND,
+        /** The goal is unreachable */
+        FAILED
+    }
+
+    /** The cost of a diagonal step */
+    private static final float SQRT2 = 1.4142135f;
+    /** The x offsets of the neighbours: four orthogonal, then four diagonal */
+    private static final int[] DX = {1, 0, -1, 0, 1, -1, -1, 1};
+    /** The y offsets of the neighbours: four orthogonal, then four diagonal */
+    private static final int[] DY = {0, 1, 0, -1, 1, 1, -1, -1};
+
+    /** The grid to search */
+    private Grid grid;
+    /** The grid width (in cells) */
+    private int width;
+    /** The best known path cost to each cell (valid when seen) */
+    private float[] cost;
+    /** The predecessor of each cell on its best path, or -1 for the start */
+    private int[] parent;
+    /** The search stamp at which each cell was last reached */
+    private int[] seen;
+    /** The search stamp at which each cell was last expanded */
+    private int[] closed;
+    /** The stamp of the current search */
+    private int stamp;
+    /** The frontier of the current search */
+    private IntBinaryHeap open;
+
+    /** Whether diagonal moves are allowed */
+    private boolean diagonal;
+    /** The heuristic for the search */
+    private Heuristic heuristic;
+    /** The clearance a cell needs to be walkable */
+    private int clearance;
+    /** The number of cells expanded by the last search */
+    private int expanded;
+
+    /** The goal cell of the current search */
+    private int searchGoal;
+    /** The x grid coordinate of the goal of the current search */
+    private int searchGoalX;
+    /** The y grid coordinate of the goal of the current search */
+    private int searchGoalY;
+    /** The mode of the current search */
+    private Mode searchMode;
+    /** The progress of the current search */
+    private Status status;
+    /** Scratch space for the cell path when finding waypoints */
+    private IntArray scratchPath;
+    /** Scratch space for the waypoint positions when finding waypoints */
+    private IntArray scratchCorners;
+
+    /**
+     * Creates a pathfinder for the given grid
+     *
+     * By default the search is 4-way with the Manhattan heuristic.
+     *
+     * @param grid The grid to search
+     */
+    public AStarPathfinder(Grid grid) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        int size = width * grid.getHeight();
+        cost = new float[size];
+        parent = new int[size];
+        seen = new int[size];
+        closed = new int[size];
+        open = new IntBinaryHeap(size);
+        stamp = 0;
+        diagonal = false;
+        heuristic = Heuristic.MANHATTAN;
+        clearance = 1;
+        status = Status.FAILED;
+        scratchPath = new IntArray();
+        scratchCorners = new IntArray();
+    }
+
+    /**
+     * Returns the grid this pathfinder searches
+     *
+     * @return the grid this pathfinder searches
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Returns true if diagonal moves are allowed
+     *
+     * @return true if diagonal moves are allowed
+     */
+    public boolean isDiagonal() {
+        return diagonal;
+    }
+
+    /**
+     * Sets whether diagonal moves are allowed
+     *
+     * Use the octile heuristic with diagonal moves to keep paths optimal.
+     *
+     * @param value whether diagonal moves are allowed
+     */
+    public void setDiagonal(boolean value) {
+        diagonal = value;
+    }
+
+    /**
+     * Returns the heuristic for the search
+     *
+     * @return the heuristic for the search
+     */
+    public Heuristic getHeuristic() {
+        return heuristic;
+    }
+
+    /**
+     * Sets the heuristic for the search
+     *
+     * @param value the heuristic for the search
+     */
+    public void setHeuristic(Heuristic value) {
+        heuristic = value;
+    }
+
+    /**
+     * Returns the clearance a cell needs to be walkable
+     *
+     * @return the clearance a cell needs to be walkable
+     */
+    public int getClearance() {
+        return clearance;
+    }
+
+    /**
+     * Sets the clearance a cell needs to be walkable
+     *
+     * The default of 1 allows every open cell. Use
+     * {@link Grid#getRequiredClearance} to get the value for an agent radius.
+     *
+     * @param value the clearance a cell needs to be walkable
+     */
+    public void setClearance(int value) {
+        clearance = Math.max(1, value);
+    }
+
+    /**
+     * Returns the number of cells expanded by the last search
+     *
+     * @return the number of cells expanded by the last search
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * Finds a shortest path between two grid cells
+     *
+     * On success, the path is stored in out as cell indices from the start to
+     * the goal (inclusive). On failure, out is left empty.
+     *
+     * @param startX The x grid coordinate of the start
+     * @param startY The y grid coordinate of the start
+     * @param goalX  The x grid coordinate of the goal
+     * @param goalY  The y grid coordinate of the goal
+     * @param out    The array to store the path
+     * @return True if the goal is reachable
+     */
+    public boolean findPath(int startX, int startY, int goalX, int goalY, IntArray out) {
+        return findPath(startX, startY, goalX, goalY, Mode.CELL, out);
+    }
+
+    /**
+     * Finds a shortest path between two grid cells using the given search mode
+     *
+     * On success, the path is stored in out as cell indices from the start to
+     * the goal (inclusive), with every intermediate cell present regardless of
+     * the mode. On failure, out is left empty.
+     *
+     * @param startX The x grid coordinate of the start
+     * @param startY The y grid coordinate of the start
+     * @param goalX  The x grid coordinate of the goal
+     * @param goalY  The y grid coordinate of the goal
+     * @param mode   The search mode
+     * @param out    The array to store the path
+     * @return True if the goal is reachable
+     */
+    public boolean findPath(int startX, int startY, int goalX, int goalY, Mode mode, IntArray out) {
+        search(startX, startY, goalX, goalY, mode);
+        return getPath(out);
+    }
+
+    /**
+     * Finds a shortest path and reduces it to any-angle waypoints
+     *
+     * On success, out holds the cell indices of the start, every corner the
+     * path must turn at, and the goal. An agent can move in a straight line
+     * between consecutive waypoints without touching a cell that lacks the
+     * clearance. On failure, out is left empty.
+     *
+     * @param startX The x grid coordinate of the start
+     * @param startY The y grid coordinate of the start
+     * @param goalX  The x grid coordinate of the goal
+     * @param goalY  The y grid coordinate of the goal
+     * @param mode   The search mode
+     * @param out    The array to store the waypoints
+     * @return True if the goal is reachable
+     */
+    public boolean findWaypoints(int startX, int startY, int goalX, int goalY, Mode mode, IntArray out) {
+        out.clear();
+        if (!findPath(startX, startY, goalX, goalY, mode, scratchPath)) {
+            return false;
+        }
+        pullString(scratchPath, scratchCorners);
+        for (int ii = 0; ii < scratchCorners.size; ii++) {
+            out.add(scratchPath.get(scratchCorners.get(ii)));
+        }
+        return true;
+    }
+
+    /**
+     * Reduces a cell path to the corners an agent must steer through
+     *
+     * This is greedy string pulling: from each waypoint, the path is followed
+     * for as long as the waypoint still has line of sight (with this
+     * pathfinder's clearance) to the cell reached, and the last such cell
+     * becomes the next waypoint. The result is stored in out as positions in
+     * path (not cell indices), starting with 0 and ending with the last
+     * position. An empty path gives an empty result.
+     *
+     * @param path The cell path to reduce
+     * @param out  The array to store the waypoint positions
+     */
+    public void pullString(IntArray path, IntArray out) {
+        out.clear();
+        if (path.size == 0) {
+            return;
+        }
+        out.add(0);
+        int anchor = path.get(0);
+        for (int ii = 2; ii < path.size; ii++) {
+            int cell = path.get(ii);
+            if (!grid.hasLineOfSight(anchor % width, anchor / width, cell % width, cell / width, clearance)) {
+                out.add(ii - 1);
+                anchor = path.get(ii - 1);
+            }
+        }
+        if (path.size > 1) {
+            out.add(path.size - 1);
+        }
+    }
+
+    /**
+     * Returns the first step of a shortest path between two grid cells
+     *
+     * This is the index of the cell after the start on the path. If the start
+     * is the goal, it is the index of the start. If the goal is unreachable,
+     * it is -1.
+     *
+     * @param startX The x grid coordinate of the start
+     * @param startY The y grid coordinate of the start
+     * @param goalX  The x grid coordinate of the goal
+     * @param goalY  The y grid coordinate of the goal
+     * @return The cell index of the first step, or -1 if unreachable
+     */
+    public int findNextStep(int startX, int startY, int goalX, int goalY) {
+        return findNextStep(startX, startY, goalX, goalY, Mode.CELL);
+    }
+
+    /**
+     * Returns the first step of a shortest path using the given search mode
+     *
+     * This is the index of the cell after the start on the path. If the start
+     * is the goal, it is the index of the start. If the goal is unreachable,
+     * it is -1.
+     *
+     * @param startX The x grid coordinate of the start
+     * @param startY The y grid coordinate of the start
+     * @param goalX  The x grid coordinate of the goal
+     * @param goalY  The y grid coordinate of the goal
+     * @param mode   The search mode
+     * @return The cell index of the first step, or -1 if unreachable
+     */
+    public int findNextStep(int startX, int startY, int goalX, int goalY, Mode mode) {
+        search(startX, startY, goalX, goalY, mode);
+        return getNextStep();
+    }
+
+    /**
+     * Sets up a search that is run in slices by {@link #continueSearch}
+     *
+     * Any search in progress is abandoned. The start cell may overlap a wall
+     * (an agent can be pushed into one), but the goal cell must be walkable;
+     * if it is not, or it is in another region of the grid (see
+     * {@link Grid#canReach}), the search fails immediately.
+     *
+     * @param startX The x grid coordinate of the start
+     * @param startY The y grid coordinate of the start
+     * @param goalX  The x grid coordinate of the goal
+     * @param goalY  The y grid coordinate of the goal
+     * @param mode   The search mode
+     * @return The progress of the search (RUNNING unless it failed at once)
+     */
+    public Status startSearch(int startX, int startY, int goalX, int goalY, Mode mode) {
+        expanded = 0;
+        if (!isOpen(goalX, goalY) || !grid.canReach(startX, startY, goalX, goalY)) {
+            status = Status.FAILED;
+            return status;
+        }
+        beginSearch();
+
+        searchGoal = grid.index(goalX, goalY);
+        searchGoalX = goalX;
+        searchGoalY = goalY;
+        searchMode = mode;
+        status = Status.RUNNING;
+        reach(grid.index(startX, startY), 0, -1, startX, startY, goalX, goalY);
+        return status;
+    }
+
+    /**
+     * Expands up to the given number of cells of the current search
+     *
+     * @param limit The maximum number of cells to expand
+     * @return The progress of the search
+     */
+    public Status continueSearch(int limit) {
+        for (int count = 0; status == Status.RUNNING && count < limit; count++) {
+            if (open.isEmpty()) {
+                status = Status.FAILED;
+                break;
+            }
+            int node = open.pop();
+            if (node == searchGoal) {
+                status = Status.FOUND;
+                break;
+            }
+            closed[node] = stamp;
+            expanded++;
+
+            int x = node % width;
+            int y = node / width;
+            if (searchMode == Mode.JUMP_POINT) {
+                expandJumpPoints(node, x, y, searchGoalX, searchGoalY);
+            } else {
+                expandCells(node, x, y, searchGoalX, searchGoalY);
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Returns the progress of the current (or last) search
+     *
+     * @return the progress of the current (or last) search
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Stores the path found by the last search
+     *
+     * On success, the path is stored in out as cell indices from the start to
+     * the goal (inclusive), with every intermediate cell present regardless of
+     * the mode. If the search did not find the goal, out is left empty.
+     *
+     * @param out The array to store the path
+     * @return True if the last search found the goal
+     */
+    public boolean getPath(IntArray out) {
+        out.clear();
+        if (status != Status.FOUND) {
+            return false;
+        }
+        for (int node = searchGoal; node != -1; node = parent[node]) {
+            out.add(node);
+            int from = parent[node];
+            if (from >= 0) {
+                // Fill in the straight (or diagonal) run back to the parent
+                int x = node % width;
+                int y = node / width;
+                int dx = Integer.signum(from % width - x);
+                int dy = Integer.signum(from / width - y);
+                for (int cell = grid.index(x + dx, y + dy); cell != from; cell = grid.index(x + dx, y + dy)) {
+                    out.add(cell);
+                    x += dx;
+                    y += dy;
+                }
+            }
+        }
+        out.reverse();
+        return true;
+    }
+
+    /**
+     * Returns the first step of the path found by the last search
+     *
+     * This is the index of the cell after the start on the path. If the start
+     * is the goal, it is the index of the start. If the search did not find
+     * the goal, it is -1.
+     *
+     * @return The cell index of the first step, or -1 if there is no path
+     */
+    public int getNextStep() {
+        if (status != Status.FOUND) {
+            return -1;
+        }
+        int node = searchGoal;
+        while (parent[node] != -1 && parent[parent[node]] != -1) {
+            node = parent[node];
+        }
+        int start = parent[node];
+        if (start < 0) {
+            return node;
+        }
+        // A jump point may be several cells away, so step once toward it
+        int x = start % width;
+        int y = start / width;
+        return grid.index(x + Integer.signum(node % width - x), y + Integer.signum(node / width - y));
+    }
+
+    /**
+     * Runs a search to completion
+     */
+    private void search(int startX, int startY, int goalX, int goalY, Mode mode) {
+        if (startSearch(startX, startY, goalX, goalY, mode) == Status.RUNNING) {
+            continueSearch(Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Relaxes every neighbouring cell of an expanded node (plain A*)
+     */
+    private void expandCells(int node, int x, int y, int goalX, int goalY) {
+        int directions = diagonal ? 8 : 4;
+        for (int d = 0; d < directions; d++) {
+            if (canStep(x, y, DX[d], DY[d])) {
+                relax(node, x + DX[d], y + DY[d], d < 4 ? 1.0f : SQRT2, goalX, goalY);
+            }
+        }
+    }
+
+    /**
+     * Relaxes the jump points reachable from an expanded node (JPS)
+     *
+     * The directions searched are pruned by the direction we arrived from.
+     * A node reached by a straight move only needs to continue straight or
+     * turn to the sides; one reached diagonally continues diagonally or along
+     * either of its two components. The start node searches every direction.
+     */
+    private void expandJumpPoints(int node, int x, int y, int goalX, int goalY) {
+        int from = parent[node];
+        if (from < 0) {
+            int directions = diagonal ? 8 : 4;
+            for (int d = 0; d < directions; d++) {
+                jumpFrom(node, x, y, DX[d], DY[d], goalX, goalY);
+            }
+            return;
+        }
+
+        int dx = Integer.signum(x - from % width);
+        int dy = Integer.signum(y - from / width);
+        if (dx != 0 && dy != 0) {
+            jumpFrom(node, x, y, dx, 0, goalX, goalY);
+            jumpFrom(node, x, y, 0, dy, goalX, goalY);
+            jumpFrom(node, x, y, dx, dy, goalX, goalY);
+        } else if (dx != 0) {
+            jumpFrom(node, x, y, dx, 0, goalX, goalY);
+            jumpFrom(node, x, y, 0, 1, goalX, goalY);
+            jumpFrom(node, x, y, 0, -1, goalX, goalY);
+            if (diagonal) {
+                jumpFrom(node, x, y, dx, 1, goalX, goalY);
+                jumpFrom(node, x, y, dx, -1, goalX, goalY);
+            }
+        } else {
+            jumpFrom(node, x, y, 0, dy, goalX, goalY);
+            jumpFrom(node, x, y, 1, 0, goalX, goalY);
+            jumpFrom(node, x, y, -1, 0, goalX, goalY);
+            if (diagonal) {
+                jumpFrom(node, x, y, 1, dy, goalX, goalY);
+                jumpFrom(node, x, y, -1, dy, goalX, goalY);
+            }
+        }
+    }
+
+    /**
+     * Jumps from an expanded node in one direction and relaxes the result
+     */
+    private void jumpFrom(int node, int x, int y, int dx, int dy, int goalX, int goalY) {
+        int next = jump(x, y, dx, dy, goalX, goalY);
+        if (next >= 0) {
+            int nx = next % width;
+            int ny = next / width;
+            relax(node, nx, ny, distance(x, y, nx, ny), goalX, goalY);
+        }
+    }
+
+    /**
+     * Returns the next jump point from (x,y) in direction (dx,dy), or -1
+     *
+     * A cell is a jump point if it is the goal, or if it has a neighbour that
+     * can only be reached optimally through it (a forced neighbour). Diagonal
+     * runs stop wherever a straight run from them finds a jump point. For
+     * 4-way movement, vertical runs likewise stop wherever a horizontal run
+     * finds one, since the path cannot turn diagonally.
+     */
+    private int jump(int x, int y, int dx, int dy, int goalX, int goalY) {
+        while (canStep(x, y, dx, dy)) {
+            x += dx;
+            y += dy;
+            if (x == goalX && y == goalY) {
+                return grid.index(x, y);
+            }
+            if (dx != 0 && dy != 0) {
+                if (jump(x, y, dx, 0, goalX, goalY) >= 0 || jump(x, y, 0, dy, goalX, goalY) >= 0) {
+                    return grid.index(x, y);
+                }
+            } else if (dx != 0) {
+                if ((isOpen(x, y - 1) && !isOpen(x - dx, y - 1)) || (isOpen(x, y + 1) && !isOpen(x - dx, y + 1))) {
+                    return grid.index(x, y);
+                }
+            } else {
+                if ((isOpen(x - 1, y) && !isOpen(x - 1, y - dy)) || (isOpen(x + 1, y) && !isOpen(x + 1, y - dy))) {
+                    return grid.index(x, y);
+                }
+                if (!diagonal && (jump(x, y, 1, 0, goalX, goalY) >= 0 || jump(x, y, -1, 0, goalX, goalY) >= 0)) {
+                    return grid.index(x, y);
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Offers a path through node to the cell (x,y), costing step more
+     */
+    private void relax(int node, int x, int y, float step, int goalX, int goalY) {
+        int next = grid.index(x, y);
+        if (closed[next] == stamp) {
+            return;
+        }
+        float g = cost[node] + step;
+        if (seen[next] != stamp || g < cost[next]) {
+            reach(next, g, node, x, y, goalX, goalY);
+        }
+    }
+
+    /**
+     * Returns true if an agent at (x,y) can move one step in direction (dx,dy)
+     *
+     * The destination must be open, and a diagonal step also needs both of
+     * the orthogonal cells beside it to be open (no corner cutting).
+     */
+    private boolean canStep(int x, int y, int dx, int dy) {
+        if (!isOpen(x + dx, y + dy)) {
+            return false;
+        }
+        return dx == 0 || dy == 0 || (isOpen(x + dx, y) && isOpen(x, y + dy));
+    }
+
+    /**
+     * Returns the length of a straight or diagonal run between two cells
+     */
+    private float distance(int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0);
+        int dy = Math.abs(y1 - y0);
+        return dx + dy + (SQRT2 - 2) * Math.min(dx, dy);
+    }
+
+    /**
+     * Records a (better) path to a cell and pushes it on the frontier
+     *
+     * Ties on f are broken toward the smaller heuristic, which keeps the
+     * search from flooding every equal-cost cell on open maps.
+     */
+    private void reach(int node, float g, int from, int x, int y, int goalX, int goalY) {
+        float h = estimate(x, y, goalX, goalY);
+        cost[node] = g;
+        parent[node] = from;
+        seen[node] = stamp;
+        open.add(node, g + h, h);
+    }
+
+    /**
+     * Returns the heuristic distance between two cells
+     */
+    private float estimate(int x, int y, int goalX, int goalY) {
+        int dx = Math.abs(x - goalX);
+        int dy = Math.abs(y - goalY);
+        if (heuristic == Heuristic.OCTILE) {
+            return dx + dy + (SQRT2 - 2) * Math.min(dx, dy);
+        }
+        return dx + dy;
+    }
+
+    /**
+     * Returns true if the cell is in bounds and has enough clearance
+     */
+    private boolean isOpen(int x, int y) {
+        return grid.inBounds(x, y) && grid.getClearance(x, y) >= clearance;
+    }
+
+    /**
+     * Starts a new search, invalidating all per-cell state in O(1)
+     */
+    private void beginSearch() {
+        open.clear();
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            stamp = 1;
+        }
+    }
+}
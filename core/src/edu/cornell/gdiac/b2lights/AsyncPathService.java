@@ -0,0 +1,361 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of worker threads that runs path searches off the render thread
+ *
+ * Searches read an immutable snapshot of the {@link Grid} (see
+ * {@link Grid#snapshot}), so they never race with the game. Each worker keeps
+ * its own {@link AStarPathfinder}. Finished paths are posted back to a queue
+ * and only copied into their requests by {@link #update}, which the game calls
+ * on its own thread at the start of a frame. Nothing on the game thread ever
+ * waits for a search.
+ *
+ * Requests use the same {@link PathScheduler.Request} handles as the frame
+ * budget scheduler, with the same resubmission rules. Resubmitting a request
+ * with a new goal cancels its old search: the worker notices between slices
+ * and abandons it, and any result that still arrives is discarded. Queued
+ * searches run in {@link PathScheduler.Priority} order, nearest player first.
+ *
+ * This is the path search backend the game uses wherever it has threads.
+ * On the web backend, which has none, it uses the frame budget scheduler.
+ */
+public class AsyncPathService implements Disposable {
+    /** The number of cells to expand between checks for cancellation */
+    private static final int SLICE = 256;
+
+    /**
+     * A search queued on (or finished by) the worker pool
+     */
+    private class Task implements Runnable, Comparable<Task> {
+        /** The request this search is for */
+        final PathScheduler.Request request;
+        /** The request version this search is for */
+        final int version;
+        /** The walls to search */
+        final Grid grid;
+        /** The endpoints of the search (start x, start y, goal x, goal y) */
+        final int startX, startY, goalX, goalY;
+        /** The clearance a cell needs to be walkable */
+        final int clearance;
+        /** The priority of the search (smaller runs first) */
+        final float priority;
+        /** The submission order, to keep equal priorities first-come first-served */
+        final long order;
+        /** The path found (start to goal inclusive), empty if none */
+        final IntArray path = new IntArray();
+        /** The positions in path of its any-angle waypoints */
+        final IntArray corners = new IntArray();
+
+        Task(PathScheduler.Request request, Grid grid, int goalX, int goalY, float priority) {
+            this.request = request;
+            this.version = request.version;
+            this.grid = grid;
+            this.startX = request.startX;
+            this.startY = request.startY;
+            this.goalX = goalX;
+            this.goalY = goalY;
+            this.clearance = AsyncPathService.this.clearance;
+            this.priority = priority;
+            this.order = submitted.getAndIncrement();
+        }
+
+        @Override
+        public void run() {
+            if (request.version != version || disposed) {
+                return;
+            }
+            AStarPathfinder pathfinder = pathfinders.get();
+            if (pathfinder == null || pathfinder.getGrid() != grid) {
+                pathfinder = new AStarPathfinder(grid);
+                pathfinders.set(pathfinder);
+            }
+            pathfinder.setClearance(clearance);
+
+            AStarPathfinder.Status status = pathfinder.startSearch(startX, startY, goalX, goalY,
+                    AStarPathfinder.Mode.JUMP_POINT);
+            while (status == AStarPathfinder.Status.RUNNING) {
+                if (request.version != version || disposed) {
+                    return;
+                }
+                status = pathfinder.continueSearch(SLICE);
+            }
+            pathfinder.getPath(path);
+            pathfinder.pullString(path, corners);
+            results.add(this);
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+
+    /** The grid the game changes */
+    private Grid grid;
+    /** The snapshot of the grid that new searches read */
+    private volatile Grid snapshot;
+    /** The worker threads */
+    private ThreadPoolExecutor executor;
+    /** The pathfinder of each worker thread */
+    private ThreadLocal<AStarPathfinder> pathfinders;
+    /** Finished searches waiting to be applied on the game thread */
+    private ConcurrentLinkedQueue<Task> results;
+    /** The number of searches ever submitted */
+    private AtomicLong submitted;
+    /** Whether the workers should stop */
+    private volatile boolean disposed;
+    /** The clearance a cell needs to be walkable */
+    private int clearance = 1;
+    /** The cache of finished paths, or null */
+    private PathCache cache;
+
+    /** The number of searches applied */
+    private int completed;
+    /** The number of searches cancelled by a resubmission */
+    private int cancelled;
+
+    /**
+     * Creates a worker pool for the given grid
+     *
+     * @param grid    The grid to search
+     * @param threads The number of worker threads
+     */
+    public AsyncPathService(Grid grid, int threads) {
+        this.grid = grid;
+        this.snapshot = grid.snapshot();
+        pathfinders = new ThreadLocal<AStarPathfinder>();
+        results = new ConcurrentLinkedQueue<Task>();
+        submitted = new AtomicLong();
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "pathfinding");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the grid this service searches
+     *
+     * @return the grid this service searches
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Returns the clearance a cell needs to be walkable
+     *
+     * @return the clearance a cell needs to be walkable
+     */
+    public int getClearance() {
+        return clearance;
+    }
+
+    /**
+     * Sets the clearance a cell needs to be walkable
+     *
+     * This applies to searches submitted after the call.
+     *
+     * @param value the clearance a cell needs to be walkable
+     */
+    public void setClearance(int value) {
+        clearance = Math.max(1, value);
+    }
+
+    /**
+     * Returns the cache of finished paths, or null if there is none
+     *
+     * @return the cache of finished paths, or null if there is none
+     */
+    public PathCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the cache of finished paths
+     *
+     * A request whose path is in the cache is ready as soon as it is
+     * submitted, and every path applied by {@link #update} is added to the cache.
+     *
+     * @param value the cache of finished paths (null for none)
+     */
+    public void setCache(PathCache value) {
+        cache = value;
+    }
+
+    /**
+     * Returns the number of searches waiting for a worker
+     *
+     * Cancelled searches are counted until a worker picks them up and drops
+     * them.
+     *
+     * @return the number of searches waiting for a worker
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Returns the number of searches applied to their requests
+     *
+     * @return the number of searches applied to their requests
+     */
+    public int getCompletedCount() {
+        return completed;
+    }
+
+    /**
+     * Returns the number of searches cancelled by a resubmission
+     *
+     * @return the number of searches cancelled by a resubmission
+     */
+    public int getCancelledCount() {
+        return cancelled;
+    }
+
+    /**
+     * Takes a new snapshot of the grid walls for future searches
+     *
+     * This happens on its own when a request is submitted after the walls
+     * change. Searches already running finish on the old snapshot.
+     */
+    public void refreshSnapshot() {
+        snapshot = grid.snapshot();
+    }
+
+    /**
+     * Submits (or resubmits) a request for a path between two cells
+     *
+     * If the request already has this goal and is pending, nothing changes.
+     * If it is ready and the start is still on its path (or the goal was
+     * found to be unreachable), nothing changes either, unless the walls
+     * changed in a way that spoils the result. Otherwise any older search
+     * for it is cancelled, and it is answered from the cache if possible or
+     * else a new search is queued. If the walls changed since
+     * the last snapshot, a new snapshot is taken first.
+     *
+     * @param request  The request to submit
+     * @param startX   The x grid coordinate of the agent
+     * @param startY   The y grid coordinate of the agent
+     * @param goalX    The x grid coordinate of the goal
+     * @param goalY    The y grid coordinate of the goal
+     * @param priority The urgency of the request
+     * @param distance The distance from the agent to the nearest player
+     */
+    public void submit(PathScheduler.Request request, int startX, int startY, int goalX, int goalY,
+                       PathScheduler.Priority priority, float distance) {
+        if (!grid.inBounds(startX, startY) || !grid.inBounds(goalX, goalY)) {
+            cancel(request);
+            request.goal = -1;
+            request.path.clear();
+            request.corners.clear();
+            request.ready = true;
+            return;
+        }
+
+        int goal = grid.index(goalX, goalY);
+        if (goal == request.goal) {
+            if (request.queued) {
+                return;
+            } else if (((request.ready && request.path.size == 0) || request.find(grid.index(startX, startY)) >= 0)
+                    && !request.isStale(grid, clearance)) {
+                // Unreachable goals stay unreachable while the walls are unchanged
+                return;
+            }
+        }
+
+        if (snapshot.getWallVersion() != grid.getWallVersion()) {
+            refreshSnapshot();
+        }
+
+        cancel(request);
+        request.startX = startX;
+        request.startY = startY;
+        request.goal = goal;
+        request.ready = false;
+        request.path.clear();
+        request.corners.clear();
+        request.cursor = 0;
+        if (cache != null && cache.lookup(grid.index(startX, startY), goal, clearance,
+                request.path, request.corners)) {
+            request.wallVersion = grid.getWallVersion();
+            request.ready = true;
+            return;
+        }
+        request.queued = true;
+        float value = priority.getValue(distance);
+        executor.execute(new Task(request, snapshot, goalX, goalY, value));
+    }
+
+    /**
+     * Cancels any search in flight for a request
+     *
+     * The request keeps any path it already had.
+     *
+     * @param request The request to cancel
+     */
+    public void cancel(PathScheduler.Request request) {
+        if (request.queued) {
+            request.queued = false;
+            cancelled++;
+        }
+        request.version++;
+    }
+
+    /**
+     * Applies every finished search to its request
+     *
+     * This must be called on the game thread, since it is the only place
+     * requests are written by the service. Results for cancelled searches
+     * are dropped.
+     */
+    public void update() {
+        for (Task task = results.poll(); task != null; task = results.poll()) {
+            PathScheduler.Request request = task.request;
+            if (task.version != request.version) {
+                continue;
+            }
+            request.path.clear();
+            request.path.addAll(task.path);
+            request.corners.clear();
+            request.corners.addAll(task.corners);
+            request.cursor = 0;
+            request.wallVersion = task.grid.getWallVersion();
+            request.ready = true;
+            if (cache != null) {
+                cache.store(task.path, task.corners, task.clearance, request.wallVersion);
+            }
+            request.queued = false;
+            completed++;
+        }
+    }
+
+    /**
+     * Stops the worker threads
+     *
+     * Searches in progress are abandoned at their next slice.
+     */
+    @Override
+    public void dispose() {
+        disposed = true;
+        executor.shutdownNow();
+        results.clear();
+    }
+}
@@ -0,0 +1,390 @@
+package edu.cornell.gdiac.b2lights;
+
+import java.util.Arrays;
+
+/**
+ * A bit-parallel breadth-first flood over the walls of a {@link Grid}
+ *
+ * The flood keeps its frontier and reached set as bit layers laid out like
+ * the grid's wall layer: one bit per cell, rows padded to whole 64-bit words.
+ * Growing the frontier by one step is then a few shifts, ands and ors per
+ * word, which advances 64 cells at a time instead of one cell per queue pop.
+ * Only the rows and words around the current frontier are touched.
+ *
+ * This answers pure reachability and step-distance questions (how far a
+ * sound carries, which cells a guard can reach in N steps) with 4-way
+ * movement. Diagonal moves that do not cut corners never reach a cell sooner
+ * than two orthogonal steps would, so these are also the 8-way reachable
+ * sets, but not the 8-way distances.
+ *
+ * When only reachability matters, {@link #fill} does better still: it
+ * saturates whole runs of open cells in a row with a single addition per word
+ * (the carry ripples along the run), and only revisits the rows beside the
+ * ones that changed.
+ */
+public class BitFlood {
+    /** The grid to flood */
+    private Grid grid;
+    /** The grid width (in cells) */
+    private int width;
+    /** The grid height (in cells) */
+    private int height;
+    /** The number of words in one row */
+    private int wordsPerRow;
+    /** The mask of the real cells in the last word of a row */
+    private long lastMask;
+
+    /** The cells reached so far */
+    private long[] reached;
+    /** The cells first reached by the last step */
+    private long[] frontier;
+    /** The cells first reached by the step being computed */
+    private long[] next;
+
+    /** The bottom row of the current frontier */
+    private int rowMin;
+    /** The top row of the current frontier (inclusive) */
+    private int rowMax;
+    /** The leftmost word of the current frontier */
+    private int wordMin;
+    /** The rightmost word of the current frontier (inclusive) */
+    private int wordMax;
+
+    /** The number of steps taken by the last flood */
+    private int steps;
+
+    /** The open cells of the row being filled */
+    private long[] rowOpen;
+    /** The rows waiting to be filled */
+    private int[] rowStack;
+    /** Whether each row is waiting to be filled */
+    private boolean[] rowQueued;
+
+    /**
+     * Creates a flood for the given grid
+     *
+     * @param grid The grid to flood
+     */
+    public BitFlood(Grid grid) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        this.height = grid.getHeight();
+        this.wordsPerRow = grid.getWordsPerRow();
+        int bits = width & 63;
+        this.lastMask = bits == 0 ? -1L : (1L << bits) - 1;
+        int size = wordsPerRow * height;
+        reached = new long[size];
+        frontier = new long[size];
+        next = new long[size];
+        rowOpen = new long[wordsPerRow];
+        rowStack = new int[height];
+        rowQueued = new boolean[height];
+    }
+
+    /**
+     * Returns the grid this flood covers
+     *
+     * @return the grid this flood covers
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Returns the number of steps taken by the last flood
+     *
+     * @return the number of steps taken by the last flood
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Returns true if the last flood reached the specified cell
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @return True if the last flood reached the cell
+     */
+    public boolean isReached(int x, int y) {
+        return grid.inBounds(x, y) && (reached[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Returns the number of cells reached by the last flood
+     *
+     * @return the number of cells reached by the last flood
+     */
+    public int getReachedCount() {
+        int count = 0;
+        for (int ii = 0; ii < reached.length; ii++) {
+            count += Long.bitCount(reached[ii]);
+        }
+        return count;
+    }
+
+    /**
+     * Floods every open cell within the given number of steps of a cell
+     *
+     * Afterwards, {@link #isReached} tells which cells were reached. The
+     * start cell is always reached (even if it is a wall). The flood stops
+     * early if it runs out of cells.
+     *
+     * @param x        The x grid coordinate of the start
+     * @param y        The y grid coordinate of the start
+     * @param maxSteps The maximum number of steps to take
+     * @return The number of steps taken
+     */
+    public int flood(int x, int y, int maxSteps) {
+        if (!begin(x, y)) {
+            return 0;
+        }
+        while (steps < maxSteps && step()) {
+        }
+        return steps;
+    }
+
+    /**
+     * Fills every open cell reachable from a cell, however far away
+     *
+     * Afterwards, {@link #isReached} tells which cells were reached. This
+     * does not count steps, which lets it spread along a whole row at once.
+     * A row is filled from the cells reached in it and beside it, then the
+     * rows beside it are queued if it grew, until nothing changes.
+     *
+     * @param x The x grid coordinate of the start
+     * @param y The y grid coordinate of the start
+     * @return The number of cells reached
+     */
+    public int fill(int x, int y) {
+        if (!begin(x, y)) {
+            return 0;
+        }
+        long[] walls = grid.getWallWords();
+        if (grid.isWall(x, y)) {
+            // An agent pushed into a wall can still step out of it
+            seed(x + 1, y);
+            seed(x - 1, y);
+            seed(x, y + 1);
+            seed(x, y - 1);
+        }
+
+        int stacked = 0;
+        stacked = pushRow(y, stacked);
+        stacked = pushRow(y - 1, stacked);
+        stacked = pushRow(y + 1, stacked);
+        while (stacked > 0) {
+            int row = rowStack[--stacked];
+            rowQueued[row] = false;
+            if (fillRow(walls, row)) {
+                stacked = pushRow(row - 1, stacked);
+                stacked = pushRow(row + 1, stacked);
+            }
+        }
+        return getReachedCount();
+    }
+
+    /**
+     * Marks a cell as reached if it is in bounds and open
+     */
+    private void seed(int x, int y) {
+        if (grid.inBounds(x, y) && !grid.isWall(x, y)) {
+            reached[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+        }
+    }
+
+    /**
+     * Queues a row to be filled if it is in bounds and not already queued
+     *
+     * @return The new number of queued rows
+     */
+    private int pushRow(int row, int stacked) {
+        if (row >= 0 && row < height && !rowQueued[row]) {
+            rowQueued[row] = true;
+            rowStack[stacked++] = row;
+        }
+        return stacked;
+    }
+
+    /**
+     * Grows the reached cells of a row to every open run they touch
+     *
+     * The seeds are the open cells of the row that are reached, or beside a
+     * reached cell in the rows above and below. A set of seeds s inside the
+     * runs of open cells a spreads to the top of each run as a & ~(a + s) | s:
+     * the carry from each run's lowest seed ripples up through the run and
+     * clears it. The same is done on the reversed row to spread downward.
+     * Carries are passed between the words of a row, so runs may span words.
+     *
+     * @return True if any new cell in the row was reached
+     */
+    private boolean fillRow(long[] walls, int row) {
+        int base = row * wordsPerRow;
+        for (int w = 0; w < wordsPerRow; w++) {
+            long open = ~walls[base + w];
+            if (w == wordsPerRow - 1) {
+                open &= lastMask;
+            }
+            long seeds = reached[base + w];
+            if (row > 0) {
+                seeds |= reached[base + w - wordsPerRow];
+            }
+            if (row < height - 1) {
+                seeds |= reached[base + w + wordsPerRow];
+            }
+            rowOpen[w] = open;
+            next[base + w] = seeds & open;
+        }
+
+        long carry = 0;
+        for (int w = 0; w < wordsPerRow; w++) {
+            long a = rowOpen[w];
+            long seeds = next[base + w];
+            long sum = a + seeds + carry;
+            carry = ((a & seeds) | ((a | seeds) & ~sum)) >>> 63;
+            next[base + w] = (a & ~sum) | seeds;
+        }
+        carry = 0;
+        for (int w = wordsPerRow - 1; w >= 0; w--) {
+            long a = Long.reverse(rowOpen[w]);
+            long seeds = Long.reverse(next[base + w]);
+            long sum = a + seeds + carry;
+            carry = ((a & seeds) | ((a | seeds) & ~sum)) >>> 63;
+            next[base + w] = Long.reverse((a & ~sum) | seeds);
+        }
+
+        // Fold the result into the reached cells and leave next cleared
+        boolean grew = false;
+        for (int w = 0; w < wordsPerRow; w++) {
+            long cells = next[base + w] | reached[base + w];
+            next[base + w] = 0;
+            if (cells != reached[base + w]) {
+                reached[base + w] = cells;
+                grew = true;
+            }
+        }
+        return grew;
+    }
+
+    /**
+     * Returns the number of steps on a shortest path between two cells
+     *
+     * The flood stops as soon as it reaches the goal, so afterwards
+     * {@link #isReached} holds the cells no further than the goal.
+     *
+     * @param startX   The x grid coordinate of the start
+     * @param startY   The y grid coordinate of the start
+     * @param goalX    The x grid coordinate of the goal
+     * @param goalY    The y grid coordinate of the goal
+     * @param maxSteps The maximum number of steps to take
+     * @return The path length in steps, or -1 if it is more than maxSteps
+     */
+    public int getDistance(int startX, int startY, int goalX, int goalY, int maxSteps) {
+        if (!grid.inBounds(goalX, goalY) || !begin(startX, startY)) {
+            return -1;
+        }
+        int word = goalY * wordsPerRow + (goalX >>> 6);
+        long bit = 1L << goalX;
+        while ((reached[word] & bit) == 0) {
+            if (steps >= maxSteps || !step()) {
+                return -1;
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Resets the flood to just the start cell
+     *
+     * @return False if the start is out of bounds
+     */
+    private boolean begin(int x, int y) {
+        Arrays.fill(reached, 0L);
+        Arrays.fill(frontier, 0L);
+        steps = 0;
+        if (!grid.inBounds(x, y)) {
+            return false;
+        }
+        int word = y * wordsPerRow + (x >>> 6);
+        reached[word] = 1L << x;
+        frontier[word] = 1L << x;
+        rowMin = rowMax = y;
+        wordMin = wordMax = x >>> 6;
+        return true;
+    }
+
+    /**
+     * Grows the frontier by one step
+     *
+     * A cell joins the new frontier if a frontier cell is beside it, it is
+     * open, and it has not been reached before. Shifting a row left or right
+     * by one bit (carrying between words) moves every frontier cell one
+     * column at once; the rows above and below move them one row.
+     *
+     * @return False if the frontier is empty (nothing new was reached)
+     */
+    private boolean step() {
+        long[] walls = grid.getWallWords();
+        int r0 = Math.max(0, rowMin - 1);
+        int r1 = Math.min(height - 1, rowMax + 1);
+        int w0 = Math.max(0, wordMin - 1);
+        int w1 = Math.min(wordsPerRow - 1, wordMax + 1);
+
+        int newRowMin = height;
+        int newRowMax = -1;
+        int newWordMin = wordsPerRow;
+        int newWordMax = -1;
+        for (int row = r0; row <= r1; row++) {
+            int base = row * wordsPerRow;
+            for (int w = w0; w <= w1; w++) {
+                int ii = base + w;
+                long here = frontier[ii];
+                long spread = (here << 1) | (here >>> 1);
+                if (w > 0) {
+                    spread |= frontier[ii - 1] >>> 63;
+                }
+                if (w < wordsPerRow - 1) {
+                    spread |= frontier[ii + 1] << 63;
+                }
+                if (row > 0) {
+                    spread |= frontier[ii - wordsPerRow];
+                }
+                if (row < height - 1) {
+                    spread |= frontier[ii + wordsPerRow];
+                }
+                spread &= ~walls[ii] & ~reached[ii];
+                if (w == wordsPerRow - 1) {
+                    spread &= lastMask;
+                }
+                next[ii] = spread;
+                if (spread != 0) {
+                    reached[ii] |= spread;
+                    newRowMin = Math.min(newRowMin, row);
+                    newRowMax = row;
+                    newWordMin = Math.min(newWordMin, w);
+                    newWordMax = Math.max(newWordMax, w);
+                }
+            }
+        }
+
+        // Clear the old frontier so that it can hold the step after this one
+        for (int row = rowMin; row <= rowMax; row++) {
+            Arrays.fill(frontier, row * wordsPerRow + wordMin, row * wordsPerRow + wordMax + 1, 0L);
+        }
+        long[] swap = frontier;
+        frontier = next;
+        next = swap;
+
+        if (newRowMax < 0) {
+            rowMin = rowMax = 0;
+            wordMin = wordMax = 0;
+            return false;
+        }
+        rowMin = newRowMin;
+        rowMax = newRowMax;
+        wordMin = newWordMin;
+        wordMax = newWordMax;
+        steps++;
+        return true;
+    }
+}
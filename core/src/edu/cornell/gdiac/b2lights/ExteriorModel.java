@@ -48,6 +48,18 @@ public class ExteriorModel extends PolygonObstacle {
 		super(new float[]{0,0,1,0,1,1,0,1},0,0);
 	}
 
+	/**
+	 * Returns the triangles of the physics body
+	 *
+	 * Each triangle is 6 floats (three vertices), relative to the body origin.
+	 * This method returns a copy, so changing it does not change the wall.
+	 *
+	 * @return a copy of the triangles of the physics body
+	 */
+	public float[] getTriangles() {
+		return vertices.clone();
+	}
+
 	/**
 	 * Initializes the Box2d shapes for this polygon
 	 *
@@ -0,0 +1,322 @@
+package edu.cornell.gdiac.b2lights;
+
+import edu.cornell.gdiac.util.IntBinaryHeap;
+
+import java.util.Arrays;
+
+/**
+ * A shared map of shortest-path directions toward a single target cell
+ *
+ * A flow field runs one reverse Dijkstra search from its target over the whole
+ * reachable part of the {@link Grid}. Afterwards, every cell knows its distance
+ * to the target and the neighbouring cell that moves toward it, so any number
+ * of agents chasing the same target can read their next step in O(1).
+ *
+ * The field is only recomputed when its target moves to a different cell (or
+ * it is explicitly invalidated), so a player standing still costs nothing.
+ * The field listens to its grid, and a wall change only invalidates it if
+ * the change is near a cell the field reached.
+ * All of the storage is allocated once per grid.
+ *
+ * Like {@link AStarPathfinder}, a field can require a minimum clearance so
+ * that it only routes agents through gaps they fit in.
+ */
+public class FlowField implements Grid.ChangeListener {
+    /** The cost of a diagonal step */
+    private static final float SQRT2 = 1.4142135f;
+    /** The x offsets of the neighbours: four orthogonal, then four diagonal */
+    private static final int[] DX = {1, 0, -1, 0, 1, -1, -1, 1};
+    /** The y offsets of the neighbours: four orthogonal, then four diagonal */
+    private static final int[] DY = {0, 1, 0, -1, 1, 1, -1, -1};
+
+    /** The grid the field covers */
+    private Grid grid;
+    /** The grid width (in cells) */
+    private int width;
+    /** The path distance from each cell to the target (valid when reached) */
+    private float[] distance;
+    /** The next cell toward the target from each cell (valid when reached) */
+    private int[] next;
+    /** The build stamp at which each cell was last reached */
+    private int[] reached;
+    /** The stamp of the current build */
+    private int stamp;
+    /** The frontier for the reverse search */
+    private IntBinaryHeap open;
+
+    /** Whether diagonal moves are allowed */
+    private boolean diagonal;
+    /** The clearance a cell needs to be walkable */
+    private int clearance;
+    /** The cell index of the current target, or -1 if the field is invalid */
+    private int target;
+    /** The number of times the field has been rebuilt */
+    private int builds;
+
+    /**
+     * Creates an empty flow field for the given grid
+     *
+     * @param grid The grid the field covers
+     */
+    public FlowField(Grid grid) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        int size = width * grid.getHeight();
+        distance = new float[size];
+        next = new int[size];
+        reached = new int[size];
+        open = new IntBinaryHeap(size);
+        stamp = 0;
+        target = -1;
+        diagonal = false;
+        clearance = 1;
+        grid.addChangeListener(this);
+    }
+
+    /**
+     * Returns the grid the field covers
+     *
+     * @return the grid the field covers
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Returns true if diagonal moves are allowed
+     *
+     * @return true if diagonal moves are allowed
+     */
+    public boolean isDiagonal() {
+        return diagonal;
+    }
+
+    /**
+     * Sets whether diagonal moves are allowed
+     *
+     * Changing this invalidates the field.
+     *
+     * @param value whether diagonal moves are allowed
+     */
+    public void setDiagonal(boolean value) {
+        if (diagonal != value) {
+            diagonal = value;
+            invalidate();
+        }
+    }
+
+    /**
+     * Returns the clearance a cell needs to be walkable
+     *
+     * @return the clearance a cell needs to be walkable
+     */
+    public int getClearance() {
+        return clearance;
+    }
+
+    /**
+     * Sets the clearance a cell needs to be walkable
+     *
+     * Changing this invalidates the field.
+     *
+     * @param value the clearance a cell needs to be walkable
+     */
+    public void setClearance(int value) {
+        value = Math.max(1, value);
+        if (clearance != value) {
+            clearance = value;
+            invalidate();
+        }
+    }
+
+    /**
+     * Returns the cell index of the current target, or -1 if there is none
+     *
+     * @return the cell index of the current target, or -1 if there is none
+     */
+    public int getTarget() {
+        return target;
+    }
+
+    /**
+     * Returns the number of times the field has been rebuilt
+     *
+     * @return the number of times the field has been rebuilt
+     */
+    public int getBuildCount() {
+        return builds;
+    }
+
+    /**
+     * Forces the field to rebuild on the next update (e.g. after walls change)
+     */
+    public void invalidate() {
+        target = -1;
+    }
+
+    /**
+     * Invalidates the field if walls changed near a cell it reached
+     *
+     * A cell's clearance can only cross the field's threshold if the change
+     * is within that clearance of it, and a newly opened cell can only join
+     * the field next to a reached cell (or the target itself, if it was
+     * blocked). Changes anywhere else (another room, or a part of the map the
+     * target cannot reach) leave the field valid.
+     */
+    @Override
+    public void cellsChanged(Grid grid, int minX, int minY, int maxX, int maxY) {
+        if (target < 0) {
+            return;
+        }
+        int x0 = Math.max(0, minX - clearance);
+        int y0 = Math.max(0, minY - clearance);
+        int x1 = Math.min(width - 1, maxX + clearance);
+        int y1 = Math.min(grid.getHeight() - 1, maxY + clearance);
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                int cell = grid.index(x, y);
+                if (reached[cell] == stamp || cell == target) {
+                    invalidate();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Points the field at the given target cell
+     *
+     * The field is rebuilt only if the target cell differs from the last one
+     * or the field was invalidated. An out of bounds or unwalkable target
+     * leaves the field empty, so every cell reads as unreachable.
+     *
+     * @param targetX The x grid coordinate of the target
+     * @param targetY The y grid coordinate of the target
+     * @return True if the field was rebuilt
+     */
+    public boolean update(int targetX, int targetY) {
+        int cell = grid.inBounds(targetX, targetY) ? grid.index(targetX, targetY) : -1;
+        if (cell == target && cell >= 0) {
+            return false;
+        }
+        build(targetX, targetY);
+        target = cell;
+        return true;
+    }
+
+    /**
+     * Returns the next cell toward the target from the given cell
+     *
+     * If the cell is the target, this is the index of the target. If the
+     * target cannot be reached from the cell, this is -1.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @return The cell index of the next step, or -1 if unreachable
+     */
+    public int getNextStep(int x, int y) {
+        if (!grid.inBounds(x, y)) {
+            return -1;
+        }
+        int cell = grid.index(x, y);
+        return reached[cell] == stamp ? next[cell] : -1;
+    }
+
+    /**
+     * Returns the furthest cell ahead on the field that is in a straight line
+     *
+     * This follows the field from the given cell for up to maxSteps cells,
+     * and returns the last one that can be reached in a straight line (with
+     * this field's clearance). Steering at it instead of the next step takes
+     * out the staircase motion of a grid path. If the target cannot be
+     * reached from the cell, this is -1.
+     *
+     * @param x        The x grid coordinate
+     * @param y        The y grid coordinate
+     * @param maxSteps The maximum number of cells to look ahead
+     * @return The cell index of the furthest visible cell, or -1 if unreachable
+     */
+    public int getWaypoint(int x, int y, int maxSteps) {
+        int cell = getNextStep(x, y);
+        if (cell < 0) {
+            return -1;
+        }
+        for (int steps = 1; steps < maxSteps && cell != target; steps++) {
+            int ahead = next[cell];
+            if (!grid.hasLineOfSight(x, y, ahead % width, ahead / width, clearance)) {
+                break;
+            }
+            cell = ahead;
+        }
+        return cell;
+    }
+
+    /**
+     * Returns the path distance (in cells) from the given cell to the target
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @return The path distance, or +infinity if unreachable
+     */
+    public float getDistance(int x, int y) {
+        if (!grid.inBounds(x, y)) {
+            return Float.POSITIVE_INFINITY;
+        }
+        int cell = grid.index(x, y);
+        return reached[cell] == stamp ? distance[cell] : Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Rebuilds the field with a reverse Dijkstra search from the target
+     *
+     * Moves are symmetric, so the cell that relaxes a neighbour is exactly
+     * that neighbour's next step toward the target.
+     */
+    private void build(int targetX, int targetY) {
+        builds++;
+        open.clear();
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            stamp = 1;
+        }
+        if (!isOpen(targetX, targetY)) {
+            return;
+        }
+
+        int start = grid.index(targetX, targetY);
+        distance[start] = 0;
+        next[start] = start;
+        reached[start] = stamp;
+        open.add(start, 0);
+
+        int directions = diagonal ? 8 : 4;
+        while (!open.isEmpty()) {
+            int node = open.pop();
+            int x = node % width;
+            int y = node / width;
+            for (int d = 0; d < directions; d++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (!isOpen(nx, ny) || (d >= 4 && (!isOpen(nx, y) || !isOpen(x, ny)))) {
+                    continue;
+                }
+                int cell = node + DY[d] * width + DX[d];
+                float g = distance[node] + (d < 4 ? 1.0f : SQRT2);
+                if (reached[cell] != stamp || g < distance[cell]) {
+                    distance[cell] = g;
+                    next[cell] = node;
+                    reached[cell] = stamp;
+                    open.add(cell, g);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the cell is in bounds and has enough clearance
+     */
+    private boolean isOpen(int x, int y) {
+        return grid.inBounds(x, y) && grid.getClearance(x, y) >= clearance;
+    }
+}
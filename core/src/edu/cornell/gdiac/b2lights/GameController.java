@@ -77,11 +77,54 @@ public class GameController implements Screen, ContactListener {
 	private boolean ottoAtDoor = false;
 
 
-	// --- Patrol Path Variables for Guard ---
-	private Vector2[] patrolPoints;
-	private int currentPatrolIndex = 0;
+	// --- Patrol Path Variables for Guards ---
 	private static final float PATROL_THRESHOLD = 0.5f; // Distance to switch patrol points
 
+	/** Flow fields toward each player, by DudeType and then clearance (made as guards need them) */
+	private FlowField[] playerFields = new FlowField[DudeModel.DudeType.values().length * (Grid.MAX_CLEARANCE + 1)];
+	/** Cache for the target of the guard being moved */
+	private Vector2 targetCache = new Vector2();
+	/** Cache for the movement direction of the guard being moved */
+	private Vector2 directionCache = new Vector2();
+	/** Cache for the steering point of a chasing guard */
+	private Vector2 chaseCache = new Vector2();
+	/** How far ahead (in cells) a chasing guard looks along its flow field */
+	private static final int CHASE_LOOKAHEAD = 8;
+	/** Time budget for path searches each frame (in milliseconds) */
+	private static final float PATH_BUDGET = 1.0f;
+	/**
+	 * Whether guard path searches run on worker threads
+	 *
+	 * This is chosen at startup. It is false only on platforms without
+	 * threads (the web backend), where searches run on the game thread
+	 * within PATH_BUDGET each frame instead.
+	 */
+	private final boolean threadedPaths;
+	/** The number of worker threads for guard path searches */
+	private static final int PATH_THREADS = 2;
+	/** Whether guards path on the level's navigation mesh instead of the grid */
+	private static final boolean NAV_MESH_PATHS = false;
+	/** The path of a guard on the navigation mesh (as x,y pairs) */
+	private FloatArray navPath = new FloatArray();
+	/** Whether guards path on the level's quadtree grid instead of the regular grid */
+	private static final boolean QUAD_GRID_PATHS = false;
+	/** Scheduler for guard path searches toward non-player targets */
+	private PathScheduler pathScheduler;
+	/** Worker pool for guard path searches toward non-player targets */
+	private AsyncPathService pathService;
+	/** Recently found guard paths, shared by the scheduler and the worker pool */
+	private PathCache searchCache;
+	/** Cache for the steering point of a guard following a scheduled path */
+	private Vector2 pathCache = new Vector2();
+	/** Whether to log guard alerts (every guard, every frame it holds an alert) and check perception */
+	private static final boolean DEBUG_GUARDS = false;
+	/** The number of worker threads for guard perception (1 to perceive on the game thread) */
+	private static final int PERCEPTION_THREADS = 2;
+	/** The perception phase of the guard update */
+	private GuardPerception guardPerception = new GuardPerception(PERCEPTION_THREADS);
+	/** Whether guards see with exact visibility polygons instead of their grid maps */
+	private static final boolean EXACT_VISION = false;
+
 
 
 
@@ -182,6 +225,7 @@ public class GameController implements Screen, ContactListener {
 	 */
 	public GameController() {
 		level = new LevelModel();
+		threadedPaths = Gdx.app.getType() != Application.ApplicationType.WebGL;
 		complete = false;
 		failed = false;
 		active = false;
@@ -189,24 +233,17 @@ public class GameController implements Screen, ContactListener {
 
 		setComplete(false);
 		setFailure(false);
-
-		// Default patrol path for the guard (adjust coordinates as needed)
-		patrolPoints = new Vector2[] {
-//				new Vector2(2, 2),
-//				new Vector2(8, 2),
-//				new Vector2(8, 8),
-//				new Vector2(2, 8)
-				new Vector2(1,8),
-				new Vector2(14,8),
-
-		};
-		currentPatrolIndex = 0;
 	}
 	
 	/**
 	 * Dispose of all (non-static) resources allocated to this mode.
 	 */
 	public void dispose() {
+		if (pathService != null) {
+			pathService.dispose();
+			pathService = null;
+		}
+		guardPerception.dispose();
 		level.dispose();
 		level  = null;
 		canvas = null;
@@ -318,21 +355,31 @@ public class GameController implements Screen, ContactListener {
 	/** Invariant: Guard's state must be updated before calling this method
 	 * i.e) target, agroed, meowed
 	 * */
-	void moveGuard() {
-
-		Vector2 targetPos = level.getGuard().getTarget();
-		Guard guard = level.getGuard();
-		Vector2 guardPos = guard.getPosition();
-		Vector2 direction = new Vector2(targetPos).sub(guardPos);
+	void moveGuard(int index) {
+		GuardSystem guards = level.getGuards();
+		Guard guard = guards.getGuard(index);
+		Vector2 targetPos = null;
+		if (guards.hasFlag(index, GuardSystem.HAS_TARGET)) {
+			targetCache.set(guards.getTargetX(index), guards.getTargetY(index));
+			targetPos = targetCache;
+			if (guards.hasFlag(index, GuardSystem.AGROED) && guards.getTargetPlayer(index) != GuardSystem.NO_PLAYER) {
+				targetPos = getChaseStep(index, targetCache);
+			}
+			if (targetPos == targetCache) {
+				// Not on a player's flow field, so follow a scheduled path instead
+				targetPos = getPathStep(index, targetCache);
+			}
+		}
+		Vector2 direction = targetPos == null ? Vector2.Zero : directionCache.set(targetPos).sub(guard.getX(), guard.getY());
 		if (direction.len() > 0) {
 			direction.nor().scl(guard.getForce());
-			if (guard.isMeowed()) {
+			if (guards.hasFlag(index, GuardSystem.MEOWED)) {
 				direction.scl(0.5f);
 			}
-			else if (guard.isAgroed()){
+			else if (guards.hasFlag(index, GuardSystem.AGROED)){
 				direction.scl(1.1f);
 			}
-			else if (guard.isCameraAlerted()) {
+			else if (guards.hasFlag(index, GuardSystem.CAMERA_ALERTED)) {
 				direction.scl(1.5f);
 			}
 
@@ -348,22 +395,225 @@ public class GameController implements Screen, ContactListener {
 		}
 	}
 
+	/**
+	 * Returns the player of the given type
+	 *
+	 * @param type	the DudeType ordinal of the player
+	 *
+	 * @return the player of the given type
+	 */
+	private DudeModel getPlayer(int type) {
+		DudeModel avatar = level.getAvatar();
+		return avatar.getPlayerType().ordinal() == type ? avatar : level.getAvatarAFK();
+	}
+
+	/**
+	 * Returns the flow field toward the given player, updated to their current cell
+	 *
+	 * There is one field per player and clearance, shared by every guard of
+	 * that size chasing them, so guards of different radii each only route
+	 * through gaps wide enough for themselves. A field is only rebuilt when its
+	 * player changes cell or the level grid is replaced.
+	 *
+	 * @param player	the player to chase
+	 * @param radius	the radius of the chasing guard
+	 *
+	 * @return the flow field toward the given player
+	 */
+	private FlowField getPlayerField(DudeModel player, float radius) {
+		Grid grid = level.getGrid();
+		int clearance = grid.getRequiredClearance(radius);
+		int slot = player.getPlayerType().ordinal() * (Grid.MAX_CLEARANCE + 1) + clearance;
+		FlowField field = playerFields[slot];
+		if (field == null || field.getGrid() != grid) {
+			field = new FlowField(grid);
+			field.setClearance(clearance);
+			playerFields[slot] = field;
+		}
+		field.update(grid.physicsToGridX(player.getX()), grid.physicsToGridY(player.getY()));
+		return field;
+	}
+
+	/**
+	 * Returns the point a chasing guard should steer toward this frame
+	 *
+	 * While the guard's target is in its player's current cell, this is the
+	 * center of the furthest cell ahead on that player's flow field that the
+	 * guard can reach in a straight line. Otherwise (the
+	 * guard is heading to where it last saw the player, or it is off the
+	 * field) the guard steers straight at its target as before.
+	 *
+	 * @param index		the index of the chasing guard
+	 * @param target	the guard's current target position
+	 *
+	 * @return the point the guard should steer toward
+	 */
+	private Vector2 getChaseStep(int index, Vector2 target) {
+		Grid grid = level.getGrid();
+		GuardSystem guards = level.getGuards();
+		Guard guard = guards.getGuard(index);
+		FlowField field = getPlayerField(getPlayer(guards.getTargetPlayer(index)), guard.getRadius());
+		int targetX = grid.physicsToGridX(target.x);
+		int targetY = grid.physicsToGridY(target.y);
+		if (!grid.inBounds(targetX, targetY) || grid.index(targetX, targetY) != field.getTarget()) {
+			return target;
+		}
 
+		int x = grid.physicsToGridX(guard.getX());
+		int y = grid.physicsToGridY(guard.getY());
+		int step = field.getWaypoint(x, y, CHASE_LOOKAHEAD);
+		if (step < 0 || step == grid.index(x, y)) {
+			return target;
+		}
+		int width = grid.getWidth();
+		return chaseCache.set(grid.gridToPhysicsX(step % width), grid.gridToPhysicsY(step / width));
+	}
+
+	/**
+	 * Returns the point a guard should steer toward on its scheduled path
+	 *
+	 * The guard's path request is resubmitted every frame; this is free while
+	 * the guard is still on the path to the same target, and a new target
+	 * cancels the old search. The guard steers at the next any-angle waypoint
+	 * of the path rather than the next cell. Until the search is ready, this
+	 * returns null and the guard keeps its last direction. If the target
+	 * cannot be reached on the grid, the guard steers straight at it.
+	 *
+	 * @param index		the index of the guard to steer
+	 * @param target	the guard's current target position
+	 *
+	 * @return the point the guard should steer toward, or null to keep going
+	 */
+	private Vector2 getPathStep(int index, Vector2 target) {
+		GuardSystem guards = level.getGuards();
+		Guard guard = guards.getGuard(index);
+		if (NAV_MESH_PATHS) {
+			return getNavMeshStep(guard, target);
+		}
+		if (QUAD_GRID_PATHS) {
+			return getQuadGridStep(guard, target);
+		}
+		Grid grid = level.getGrid();
+		if (searchCache == null || searchCache.getGrid() != grid) {
+			searchCache = new PathCache(grid, PathCache.DEFAULT_CAPACITY, LevelModel.NAV_CLUSTER_SIZE);
+		}
+		if (threadedPaths && (pathService == null || pathService.getGrid() != grid)) {
+			if (pathService != null) {
+				pathService.dispose();
+			}
+			pathService = new AsyncPathService(grid, PATH_THREADS);
+			pathService.setCache(searchCache);
+		} else if (!threadedPaths && (pathScheduler == null || pathScheduler.getGrid() != grid)) {
+			pathScheduler = new PathScheduler(grid, PATH_BUDGET);
+			pathScheduler.setCache(searchCache);
+		}
+		int clearance = grid.getRequiredClearance(guard.getRadius());
+
+		PathScheduler.Priority priority = PathScheduler.Priority.PATROL;
+		if (guards.hasFlag(index, GuardSystem.AGROED)) {
+			priority = PathScheduler.Priority.CHASE;
+		} else if (guards.hasFlag(index, GuardSystem.MEOWED) || guards.hasFlag(index, GuardSystem.CAMERA_ALERTED)) {
+			priority = PathScheduler.Priority.ALERT;
+		}
+		float distance = Math.min(guard.getPosition().dst(level.getAvatar().getPosition()),
+				guard.getPosition().dst(level.getAvatarAFK().getPosition()));
+
+		int x = grid.physicsToGridX(guard.getX());
+		int y = grid.physicsToGridY(guard.getY());
+		PathScheduler.Request request = guards.getPathRequest(index);
+		int targetX = grid.physicsToGridX(target.x);
+		int targetY = grid.physicsToGridY(target.y);
+		if (threadedPaths) {
+			pathService.setClearance(clearance);
+			pathService.submit(request, x, y, targetX, targetY, priority, distance);
+		} else {
+			pathScheduler.setClearance(clearance);
+			pathScheduler.submit(request, x, y, targetX, targetY, priority, distance);
+		}
+		if (!request.isReady()) {
+			return null;
+		}
+
+		int step = grid.inBounds(x, y) ? request.getNextWaypoint(grid.index(x, y)) : -1;
+		if (step < 0 || step == grid.index(x, y)) {
+			return target;
+		}
+		int width = grid.getWidth();
+		return pathCache.set(grid.gridToPhysicsX(step % width), grid.gridToPhysicsY(step / width));
+	}
+
+	/**
+	 * Returns the point a guard should steer toward on the navigation mesh
+	 *
+	 * Mesh queries cost about as much as the number of rooms between the
+	 * guard and its target, so they run on the spot every frame. The guard
+	 * steers at the first corner of the path. If the target cannot be
+	 * reached, the guard steers straight at it.
+	 *
+	 * @param guard		the guard to steer
+	 * @param target	the guard's current target position
+	 *
+	 * @return the point the guard should steer toward
+	 */
+	private Vector2 getNavMeshStep(Guard guard, Vector2 target) {
+		NavMesh mesh = level.getNavMesh();
+		if (!mesh.findPath(guard.getX(), guard.getY(), target.x, target.y, navPath) || navPath.size < 4) {
+			return target;
+		}
+		return pathCache.set(navPath.get(2), navPath.get(3));
+	}
+
+	/**
+	 * Returns the point a guard should steer toward on the quadtree grid
+	 *
+	 * Like mesh queries, these run on the spot every frame, since a search
+	 * only visits as many leaves as there are wall edges in the way. The guard
+	 * steers at the second point of the path (the first is its own cell). If
+	 * the target cannot be reached, the guard steers straight at it.
+	 *
+	 * @param guard		the guard to steer
+	 * @param target	the guard's current target position
+	 *
+	 * @return the point the guard should steer toward
+	 */
+	private Vector2 getQuadGridStep(Guard guard, Vector2 target) {
+		QuadGrid quad = level.getQuadGrid();
+		int x = quad.physicsToGridX(guard.getX());
+		int y = quad.physicsToGridY(guard.getY());
+		int targetX = quad.physicsToGridX(target.x);
+		int targetY = quad.physicsToGridY(target.y);
+		if (!quad.findPath(x, y, targetX, targetY, navPath) || navPath.size < 4) {
+			return target;
+		}
+		return pathCache.set(navPath.get(2), navPath.get(3));
+	}
+
+	/**
+	 * Updates the AI of every guard in two phases
+	 *
+	 * The alerts that reach every guard at once (a meow, the security camera)
+	 * are checked once per frame and frozen, with the player positions, for
+	 * the perception phase. That phase decides what each guard senses, in
+	 * parallel batches (see {@link GuardPerception}). The apply phase then
+	 * walks the guards in order on this thread; each guard reacts to what it
+	 * sensed and moves, with all of its state in the level's {@link GuardSystem}.
+	 */
 	private void updateGuardBehavior() {
-		Guard guard = level.getGuard();
+		GuardSystem guards = level.getGuards();
 		DudeModel avatar = level.getAvatar();
 		SecurityCamera securityCamera = level.getSecurityCamera();
 
 
 		// Check for meow alert (Gar) or inked alert (Otto)
+		boolean meowed = false;
 		if (avatar.getPlayerType() == DudeModel.DudeType.GAR) {
 			Gar gar = (Gar) avatar;
 			if (gar.getMeowed()) {
-				// Make guard go after the meow
-				guard.setMeow(true);
-				guard.setTarget(gar.getPosition().cpy());
-				guard.setChaseTimer(Guard.MAX_CHASE_TIME);
-				System.out.println("Guard alerted by meow, moving to meow position");
+				// Make guards go after the meow
+				meowed = true;
+				if (DEBUG_GUARDS) {
+					System.out.println("Guards alerted by meow, moving to meow position");
+				}
 			}
 		} else if (avatar.getPlayerType() == DudeModel.DudeType.OTTO) {
 			Otto otto = (Otto) avatar;
@@ -372,101 +622,111 @@ public class GameController implements Screen, ContactListener {
 			}
 		}
 
-
 		// Handle camera alert logic
-		if (level.isAvatarInSecurityLight()) {
-			guard.setMeow(false);
-			guard.setAgroed(true);
-			guard.setCameraAlerted(true);
-			guard.setTarget(avatar.getPosition().cpy());
-
-			// Guard should be extra aggressive in chasing player
-			guard.setChaseTimer(Guard.MAX_CHASE_TIME * 2);
-			System.out.println("Guard alerted by security camera light!");
+		boolean cameraAlert = level.isAvatarInSecurityLight();
+		if (cameraAlert) {
+			if (DEBUG_GUARDS) {
+				System.out.println("Guards alerted by security camera light!");
+			}
 		}
 
-
-		// Reset camera alert when the guard reaches its target
-//		if ((guard.isCameraAlerted() && guard.getPosition().dst(guard.getTarget()) < 0.1f)
-//				|| guard.getChaseTimer() <= 0) {
-//			guard.setCameraAlerted(false);
-//		}
-
-		// Reset meow alert when the guard reaches its target
-		if ((guard.isMeowed() && guard.getPosition().dst(guard.getTarget()) < 0.1f)
-				) {
-			System.out.println("Guard is no longer following the meow");
-			guard.setMeow(false);
+		// Perception phase: read-only, in parallel over the guards
+		guardPerception.setWalls(EXACT_VISION ? level.getVisibilityPolygon() : null);
+		guardPerception.snapshot(guards, level.getGrid(), avatar, level.getAvatarAFK(), meowed, cameraAlert);
+		guardPerception.perceive(guards);
+		if (DEBUG_GUARDS && !guardPerception.matchesSequential(guards)) {
+			System.out.println("Guard perception differs between the parallel and sequential runs!");
 		}
 
-		// Check Field-of-view (FOV), making guard agroed if they see a player
-		processGuardFOV(guard);
+		// Apply phase: in guard order, on this thread
+		for (int ii = 0; ii < guards.size(); ii++) {
+			if (guardPerception.hasResult(ii, GuardPerception.HEARD_MEOW)) {
+				guards.setFlag(ii, GuardSystem.MEOWED, true);
+				guards.setTarget(ii, avatar.getX(), avatar.getY());
+				guards.setTargetPlayer(ii, GuardSystem.NO_PLAYER);
+				guards.setChaseTimer(ii, Guard.MAX_CHASE_TIME);
+			}
+			if (guardPerception.hasResult(ii, GuardPerception.CAMERA_ALERT)) {
+				guards.setFlag(ii, GuardSystem.MEOWED, false);
+				guards.setFlag(ii, GuardSystem.AGROED | GuardSystem.CAMERA_ALERTED, true);
+				guards.setTarget(ii, avatar.getX(), avatar.getY());
+				guards.setTargetPlayer(ii, avatar.getPlayerType().ordinal());
+
+				// Guard should be extra aggressive in chasing player
+				guards.setChaseTimer(ii, Guard.MAX_CHASE_TIME * 2);
+			}
 
-		if (guard.isMeowed()) {
-			System.out.println("Guard is meowed, moving to meow position");
-		}
+			// Reset meow alert when the guard reaches its target
+			Guard guard = guards.getGuard(ii);
+			if (guards.hasFlag(ii, GuardSystem.MEOWED)
+					&& guard.getPosition().dst(guards.getTargetX(ii), guards.getTargetY(ii)) < 0.1f) {
+				if (DEBUG_GUARDS) {
+					System.out.println("Guard is no longer following the meow");
+				}
+				guards.setFlag(ii, GuardSystem.MEOWED, false);
+			}
 
+			// Act on the field-of-view (FOV), making guard agroed if they see a player
+			processGuardFOV(ii);
 
-		// Now that guard's state is updated, move the guard
-		if (!guard.isAgroed() && !guard.isMeowed()) {
-			updateGuardPatrol();
-		}
-		else {
-			// Guard is agroed or meowed
-			moveGuard();
+			// Now that guard's state is updated, move the guard
+			if (!guards.hasFlag(ii, GuardSystem.AGROED) && !guards.hasFlag(ii, GuardSystem.MEOWED)) {
+				updateGuardPatrol(ii);
+			}
+			else {
+				// Guard is agroed or meowed
+				moveGuard(ii);
+			}
 		}
-
 	}
 
-	private void processGuardFOV(Guard guard) {
+	private void processGuardFOV(int index) {
+		GuardSystem guards = level.getGuards();
 		DudeModel avatar = level.getAvatar();
 		DudeModel avatarAFK = level.getAvatarAFK();
 
-		LightSource guardLight = level.getGuardLight();
-		if(guardLight.contains(avatar.getX(), avatar.getY())){
-				// Guard is now chasing active player
-				guard.setAgroed(true);
-				guard.setMeow(false);
-				guard.setTarget(avatar.getPosition().cpy());
-				guard.setChaseTimer(Guard.MAX_CHASE_TIME);
+		DudeModel seen = null;
+		if (guardPerception.hasResult(index, GuardPerception.SAW_AVATAR)) {
+			// Guard is now chasing active player
+			seen = avatar;
+			if (DEBUG_GUARDS) {
 				System.out.println("Guard alerted by FOV, moving to avatar position");
+			}
 		}
-		else if (guardLight.contains(avatarAFK.getX(), avatarAFK.getY())) {
+		else if (guardPerception.hasResult(index, GuardPerception.SAW_AVATAR_AFK)) {
 			// Guard is now chasing afk player
-			guard.setAgroed(true);
-			guard.setMeow(false);
-			guard.setTarget(avatarAFK.getPosition().cpy());
-			guard.setChaseTimer(Guard.MAX_CHASE_TIME);
-			System.out.println("Guard alerted by FOV, moving to avatarAFK position");
+			seen = avatarAFK;
+			if (DEBUG_GUARDS) {
+				System.out.println("Guard alerted by FOV, moving to avatarAFK position");
+			}
+		}
+
+		if (seen != null) {
+			guards.setFlag(index, GuardSystem.AGROED, true);
+			guards.setFlag(index, GuardSystem.MEOWED, false);
+			guards.setTarget(index, seen.getX(), seen.getY());
+			guards.setTargetPlayer(index, seen.getPlayerType().ordinal());
+			guards.setChaseTimer(index, Guard.MAX_CHASE_TIME);
 		}
 		else {
-			guard.setChaseTimer(guard.getChaseTimer() - 1);
-			if (guard.getChaseTimer() <= 0) {
+			guards.setChaseTimer(index, guards.getChaseTimer(index) - 1);
+			if (guards.getChaseTimer(index) <= 0) {
 				// Guard is not chasing player anymore
-				guard.setAgroed(false);
-				guard.setCameraAlerted(false);
+				guards.setFlag(index, GuardSystem.AGROED | GuardSystem.CAMERA_ALERTED, false);
+				guards.setTargetPlayer(index, GuardSystem.NO_PLAYER);
 			}
 		}
 
 	}
 
-	private void updateGuardPatrol() {
-		Guard guard = level.getGuard();
-		if (patrolPoints != null && patrolPoints.length > 0) {
-			Vector2 patrolTarget = patrolPoints[currentPatrolIndex];
-			if (guard.getPosition().dst(patrolTarget) < PATROL_THRESHOLD) {
-				currentPatrolIndex = (currentPatrolIndex + 1) % patrolPoints.length;
-				patrolTarget = patrolPoints[currentPatrolIndex];
-			}
-			guard.setTarget(patrolTarget);
-			moveGuard();
+	private void updateGuardPatrol(int index) {
+		GuardSystem guards = level.getGuards();
+		if (guards.updatePatrol(index, PATROL_THRESHOLD)) {
+			moveGuard(index);
 		} else {
-			guard.setMovement(0, 0);
+			guards.getGuard(index).setMovement(0, 0);
 		}
 	}
-
-
-
 	private void updateAvatarMovement() {
 		DudeModel avatar = level.getAvatar();
 		InputController input = InputController.getInstance();
@@ -511,6 +771,10 @@ public class GameController implements Screen, ContactListener {
 	 * @param delta Number of seconds since last animation frame
 	 */
 	public void update(float dt) {
+		// Apply the guard paths finished on worker threads since last frame
+		if (pathService != null) {
+			pathService.update();
+		}
 
 		// Process input-dependent events
 		// (e.g., light switching could also be extracted if needed)
@@ -527,10 +791,18 @@ public class GameController implements Screen, ContactListener {
 		updateGuardBehavior();
 		updateSecurityCamera();
 
+		// Spend this frame's budget on queued path searches
+		if (pathScheduler != null) {
+			pathScheduler.update();
+		}
+
 
-		// Apply forces for AFK avatar and guard to prevent sliding
+		// Apply forces for AFK avatar and guards to prevent sliding
 		level.getAvatarAFK().applyForce();
-		level.getGuard().applyForce();
+		GuardSystem guards = level.getGuards();
+		for (int ii = 0; ii < guards.size(); ii++) {
+			guards.getGuard(ii).applyForce();
+		}
 
 		// Manage stamina and ability resets
 		updateStamina();
@@ -771,9 +1043,8 @@ public class GameController implements Screen, ContactListener {
 
 			// Check for failure condition
 			// You lose if one of the characters touches the guards
-			Guard guard = level.getGuard();
-			if ((bd1 == guard && (bd2 == avatar || bd2 == afkAvatar)) ||
-					(bd2 == guard && (bd1 == avatar || bd1 == afkAvatar))) {
+			if ((bd1 instanceof Guard && (bd2 == avatar || bd2 == afkAvatar)) ||
+					(bd2 instanceof Guard && (bd1 == avatar || bd1 == afkAvatar))) {
 				setFailure(true);
 			}
 
@@ -1,42 +1,192 @@
 package edu.cornell.gdiac.b2lights;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
 import edu.cornell.gdiac.physics.obstacle.*;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * A class representing the 2D grid of the game
+ *
+ * Tile attributes are stored as flat bit layers rather than as one object per
+ * tile. Each layer is row-major, with every row padded to a whole number of
+ * 64-bit words, so a row scan touches consecutive memory and a reset is a
+ * single array fill.
+ *
+ * The pathfinding marks (visited and goal) are generation stamps instead. A
+ * tile is marked when its stamp equals the current generation, so clearing
+ * all marks is a counter increment and a search only pays for the tiles that
+ * it actually touches.
+ *
+ * The grid also keeps a clearance layer: for every tile, the chessboard
+ * distance to the nearest wall (or the edge of the map), capped at
+ * {@link #MAX_CLEARANCE}. An agent of a given radius fits on a tile if its
+ * clearance is at least {@link #getRequiredClearance}, so a search can filter
+ * out tight gaps with the same single lookup it uses to skip walls.
+ *
+ * Finally, every open tile carries a region label: two tiles have the same
+ * label exactly when an agent can walk between them. A query can check
+ * {@link #canReach} first and reject an unreachable goal in O(1), instead of
+ * searching the whole region around the start before giving up.
+ *
+ * Moving obstacles (doors, crates) are stamped onto the walls and unstamped
+ * again without rebuilding the grid. Each change refreshes the clearance and
+ * regions around the changed tiles only, then hands the rectangle of changed
+ * tiles to every {@link ChangeListener}, so that anything derived from the
+ * walls can refresh just the part that is out of date.
  */
 public class Grid {
 
     /**
-     * The internal tile state.
-     * Each tile on the board has a set of attributes associated with it.
+     * An object that keeps data derived from the walls of a grid
      */
-    private static class TileState {
-        /** Whether the tile has been visited (for pathfinding) */
-        public boolean visited = false;
-        /** Whether the tile is a wall */
-        public boolean wall = false;
-        /** Whether the tile is a goal (for pathfinding) */
-        public boolean goal = false;
+    public interface ChangeListener {
+        /**
+         * Called after the walls of a grid change
+         *
+         * The clearance and regions of the grid are already up to date.
+         *
+         * @param grid The grid that changed
+         * @param minX The left column of the changed cells
+         * @param minY The bottom row of the changed cells
+         * @param maxX The right column of the changed cells (inclusive)
+         * @param maxY The top row of the changed cells (inclusive)
+         */
+        public void cellsChanged(Grid grid, int minX, int minY, int maxX, int maxY);
     }
 
+    /** The largest clearance stored (and so the largest agent supported, in tiles) */
+    public static final int MAX_CLEARANCE = 16;
+    /**
+     * The version of the code that builds the layers (rasterizing, clearance
+     * and regions); change this when the result of that code changes, so
+     * that {@link NavCache} does not load grids built the old way
+     */
+    static final int BUILD_VERSION = 1;
+
     /** The board width (in number of tiles) */
     private int width;
     /** The board height (in number of tiles) */
     private int height;
     /** The tile size (px)*/
     private float tileSize;
-    /** The grid of booleans representing the map (True if wall, False otherwise) */
-    private TileState[][] grid;
+    /** The number of 64-bit words in a single row of a bit layer */
+    private int wordsPerRow;
+    /** Bit layer of wall tiles (row-major, each row padded to a whole word) */
+    private long[] walls;
+    /** Bit layer of the walls built from the level, which stamps never clear */
+    private long[] fixedWalls;
+    /** The number of obstacle footprints stamped on each tile (indexed by index(x, y)) */
+    private short[] stamps;
+    /** The number of times the walls have changed */
+    private int wallVersion;
+    /** The objects to tell when the walls change */
+    private Array<ChangeListener> listeners;
+    /** The distance from each tile to the nearest wall (indexed by index(x, y)) */
+    private byte[] clearance;
+    /** The connected region of each tile, or 0 for walls (indexed by index(x, y)) */
+    private int[] regions;
+    /** The last region label handed out */
+    private int regionCount;
+    /** The pass stamp at which each tile was last relabelled */
+    private int[] relabelled;
+    /** The stamp of the current relabelling pass */
+    private int relabelStamp;
+    /** The flood fill frontier when labelling regions */
+    private IntArray frontier;
+    /** The generation stamp of each tile's last visit (indexed by index(x, y)) */
+    private int[] visited;
+    /** The generation stamp of each tile's last goal mark (indexed by index(x, y)) */
+    private int[] goals;
+    /** The current pathfinding generation; a mark is set iff it equals this stamp */
+    private int generation;
     /** The world bounds in physics units */
     private Rectangle bounds;
     /** The scaling factor between physics and screen coordinates */
     private Vector2 scale;
 
     public Grid(LevelModel levelModel, float cellsPerUnit) {
-        this.bounds = levelModel.getBounds();
-        this.scale = levelModel.getScale();
+        allocate(levelModel.getBounds(), levelModel.getScale(), cellsPerUnit);
+        initializeFromLevel(levelModel);
+        this.fixedWalls = walls.clone();
+        computeClearance(0, 0, width - 1, height - 1);
+        labelRegions(0, 0, width - 1, height - 1);
+    }
+
+    /**
+     * Creates a grid from the layers saved by {@link #write}
+     *
+     * The level supplies the bounds and scale, which must be the ones the
+     * data was saved with. The walls, clearance and regions are read as they
+     * are, so nothing is rasterized or recomputed.
+     *
+     * @param levelModel   The level model the data was saved for
+     * @param cellsPerUnit The resolution the data was saved at
+     * @param data         The saved layers, positioned at their start
+     * @throws IOException if the data does not fit this level
+     */
+    Grid(LevelModel levelModel, float cellsPerUnit, ByteBuffer data) throws IOException {
+        allocate(levelModel.getBounds(), levelModel.getScale(), cellsPerUnit);
+        if (data.getInt() != width || data.getInt() != height) {
+            throw new IOException("Saved grid does not match the level size");
+        }
+        data.asLongBuffer().get(walls);
+        data.position(data.position() + 8 * walls.length);
+        data.get(clearance);
+        data.asIntBuffer().get(regions);
+        data.position(data.position() + 4 * regions.length);
+        regionCount = data.getInt();
+        this.fixedWalls = walls.clone();
+    }
+
+    /**
+     * Creates an open grid with no walls covering the given bounds
+     *
+     * This is for tools and benchmarks that build their walls with
+     * {@link #stampCells} instead of from a level. Physics and screen
+     * coordinates are taken to be the same.
+     *
+     * @param bounds       The world bounds in physics units
+     * @param cellsPerUnit The grid resolution
+     */
+    public Grid(Rectangle bounds, float cellsPerUnit) {
+        this(bounds, cellsPerUnit, new FloatArray());
+    }
+
+    /**
+     * Creates a grid covering the given bounds with walls at the given boxes
+     *
+     * The boxes cover the same cells as {@link InteriorModel} walls of the
+     * same size would in a level, so a level's walls can be read straight
+     * from its JSON without building its physics bodies. Physics and screen
+     * coordinates are taken to be the same.
+     *
+     * @param bounds       The world bounds in physics units
+     * @param cellsPerUnit The grid resolution
+     * @param boxes        The walls, as center x, center y, width, height in turn
+     */
+    public Grid(Rectangle bounds, float cellsPerUnit, FloatArray boxes) {
+        allocate(new Rectangle(bounds), new Vector2(1, 1), cellsPerUnit);
+        for (int ii = 0; ii + 3 < boxes.size; ii += 4) {
+            fillBox(boxes.get(ii), boxes.get(ii + 1), boxes.get(ii + 2), boxes.get(ii + 3));
+        }
+        this.fixedWalls = walls.clone();
+        computeClearance(0, 0, width - 1, height - 1);
+        labelRegions(0, 0, width - 1, height - 1);
+    }
+
+    /**
+     * Allocates the layers of an empty grid covering the bounds
+     */
+    private void allocate(Rectangle bounds, Vector2 scale, float cellsPerUnit) {
+        this.bounds = bounds;
+        this.scale = scale;
 
         // Determine tile size in physics units
         this.tileSize = 1.0f / cellsPerUnit;
@@ -45,16 +195,82 @@ public class Grid {
         this.width = (int)(bounds.width * cellsPerUnit);
         this.height = (int)(bounds.height * cellsPerUnit);
 
-        // Initialize grid
-        this.grid = new TileState[width][height];
+        // Initialize the bit layers (all tiles start open and unmarked)
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.walls = new long[wordsPerRow * height];
+        this.stamps = new short[width * height];
+        this.listeners = new Array<ChangeListener>();
+        this.clearance = new byte[width * height];
+        this.regions = new int[width * height];
+        this.relabelled = new int[width * height];
+        this.frontier = new IntArray();
+        this.visited = new int[width * height];
+        this.goals = new int[width * height];
+        this.generation = 1;
+    }
 
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                grid[i][j] = new TileState();
-            }
-        }
+    /**
+     * Creates a copy of the given grid's walls with no pathfinding marks
+     *
+     * @param source The grid to copy
+     */
+    private Grid(Grid source) {
+        this.bounds = new Rectangle(source.bounds);
+        this.scale = new Vector2(source.scale);
+        this.tileSize = source.tileSize;
+        this.width = source.width;
+        this.height = source.height;
+        this.wordsPerRow = source.wordsPerRow;
+        this.walls = source.walls.clone();
+        this.fixedWalls = source.fixedWalls.clone();
+        this.stamps = source.stamps.clone();
+        this.wallVersion = source.wallVersion;
+        this.listeners = new Array<ChangeListener>();
+        this.clearance = source.clearance.clone();
+        this.regions = source.regions.clone();
+        this.regionCount = source.regionCount;
+        this.relabelled = new int[width * height];
+        this.frontier = new IntArray();
+        this.visited = new int[width * height];
+        this.goals = new int[width * height];
+        this.generation = 1;
+    }
 
-        initializeFromLevel(levelModel);
+    /**
+     * Returns a copy of this grid for reading on another thread
+     *
+     * The copy has the same dimensions, walls and wall version as this grid
+     * at the time of the call, but no listeners. Later changes to this grid
+     * do not affect it, and as long as
+     * no one changes the copy, any number of threads may read its walls (the
+     * pathfinding marks are not shared and should not be used).
+     *
+     * @return a copy of this grid for reading on another thread
+     */
+    public Grid snapshot() {
+        return new Grid(this);
+    }
+
+    /**
+     * Saves the walls, clearance and regions of this grid
+     *
+     * Stamped footprints are saved as walls, so this should be called before
+     * any are stamped. The data can be read back with the package constructor.
+     *
+     * @param out The stream to write to
+     * @throws IOException if the stream fails
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(width);
+        out.writeInt(height);
+        for (int ii = 0; ii < walls.length; ii++) {
+            out.writeLong(walls[ii]);
+        }
+        out.write(clearance);
+        for (int ii = 0; ii < regions.length; ii++) {
+            out.writeInt(regions[ii]);
+        }
+        out.writeInt(regionCount);
     }
 
     /**
@@ -73,40 +289,217 @@ public class Grid {
             // For box obstacles, mark the covered cells as walls
             if (obj instanceof InteriorModel) {
                 InteriorModel wall = (InteriorModel) obj;
-                Vector2 position = new Vector2(wall.getX(), wall.getY());
-                Vector2 dimension = new Vector2(wall.getWidth(), wall.getHeight());
-
-                // Add a small epsilon to ensure boundary walls are detected
-                float epsilon = 0.001f;
-
-                // Convert to grid coordinates
-                int startX = physicsToGridX(position.x - dimension.x/2 - epsilon);
-                int startY = physicsToGridY(position.y - dimension.y/2 - epsilon);
-                int endX = physicsToGridX(position.x + dimension.x/2 - epsilon);
-                int endY = physicsToGridY(position.y + dimension.y/2 - epsilon);
-
-                // Mark all covered cells as walls
-                for (int x = startX; x <= endX; x++) {
-                    for (int y = startY; y <= endY; y++) {
-                        if (inBounds(x, y)) {
-                            grid[x][y].wall = true;
-                        }
-                    }
-                }
+                fillBox(wall.getX(), wall.getY(), wall.getWidth(), wall.getHeight());
             }
 
         }
     }
 
+    /**
+     * Marks every cell covered by a box (in physics coordinates) as a wall
+     *
+     * @param x      The x coordinate of the box center
+     * @param y      The y coordinate of the box center
+     * @param width  The box width
+     * @param height The box height
+     */
+    private void fillBox(float x, float y, float width, float height) {
+        int[] cells = getFootprint(x, y, width, height);
+        for (int cx = cells[0]; cx <= cells[2]; cx++) {
+            for (int cy = cells[1]; cy <= cells[3]; cy++) {
+                if (inBounds(cx, cy)) {
+                    walls[word(cx, cy)] |= 1L << cx;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the cells covered by a box in physics coordinates
+     *
+     * This is the rectangle {minX, minY, maxX, maxY} (inclusive), and may
+     * extend out of bounds.
+     *
+     * @param x      The x coordinate of the box center
+     * @param y      The y coordinate of the box center
+     * @param width  The box width
+     * @param height The box height
+     * @return The cells covered by the box
+     */
+    private int[] getFootprint(float x, float y, float width, float height) {
+        // Add a small epsilon to ensure boundary walls are detected
+        float epsilon = 0.001f;
+        return new int[] {
+                physicsToGridX(x - width/2 - epsilon), physicsToGridY(y - height/2 - epsilon),
+                physicsToGridX(x + width/2 - epsilon), physicsToGridY(y + height/2 - epsilon)};
+    }
+
     /**
      * Resets the values of the grid to false
+     *
+     * This removes the level walls and every stamped footprint.
      */
     public void resetGrid() {
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                grid[i][j] = new TileState();
+        Arrays.fill(walls, 0L);
+        Arrays.fill(fixedWalls, 0L);
+        Arrays.fill(stamps, (short)0);
+        Arrays.fill(visited, 0);
+        Arrays.fill(goals, 0);
+        generation = 1;
+        computeClearance(0, 0, width - 1, height - 1);
+        labelRegions(0, 0, width - 1, height - 1);
+        wallVersion++;
+        notifyListeners(0, 0, width - 1, height - 1);
+    }
+
+    /**
+     * Returns the number of times the walls have changed
+     *
+     * Anything derived from the walls can keep the version it was built
+     * from and compare it to this one to tell if it may be out of date.
+     *
+     * @return the number of times the walls have changed
+     */
+    public int getWallVersion() {
+        return wallVersion;
+    }
+
+    /**
+     * Adds an object to tell whenever the walls change
+     *
+     * @param listener The object to tell
+     */
+    public void addChangeListener(ChangeListener listener) {
+        if (!listeners.contains(listener, true)) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Stops telling an object when the walls change
+     *
+     * @param listener The object to stop telling
+     */
+    public void removeChangeListener(ChangeListener listener) {
+        listeners.removeValue(listener, true);
+    }
+
+    /**
+     * Stamps the footprint of a box obstacle onto the walls
+     *
+     * The box is given in physics coordinates, and covers the same cells as
+     * a level wall of the same size would. Footprints may overlap each other
+     * and the level walls; a cell stays a wall until every footprint on it
+     * has been unstamped.
+     *
+     * @param x      The x coordinate of the box center
+     * @param y      The y coordinate of the box center
+     * @param width  The box width
+     * @param height The box height
+     * @return True if any cell became a wall
+     */
+    public boolean stamp(float x, float y, float width, float height) {
+        int[] cells = getFootprint(x, y, width, height);
+        return stampCells(cells[0], cells[1], cells[2], cells[3]);
+    }
+
+    /**
+     * Removes the footprint of a box obstacle stamped by {@link #stamp}
+     *
+     * The box must be the same one that was stamped (not where the obstacle
+     * has moved since).
+     *
+     * @param x      The x coordinate of the box center
+     * @param y      The y coordinate of the box center
+     * @param width  The box width
+     * @param height The box height
+     * @return True if any cell stopped being a wall
+     */
+    public boolean unstamp(float x, float y, float width, float height) {
+        int[] cells = getFootprint(x, y, width, height);
+        return unstampCells(cells[0], cells[1], cells[2], cells[3]);
+    }
+
+    /**
+     * Stamps a footprint onto every cell of the given rectangle
+     *
+     * Cells out of bounds are ignored.
+     *
+     * @param minX The left column of the footprint
+     * @param minY The bottom row of the footprint
+     * @param maxX The right column of the footprint (inclusive)
+     * @param maxY The top row of the footprint (inclusive)
+     * @return True if any cell became a wall
+     */
+    public boolean stampCells(int minX, int minY, int maxX, int maxY) {
+        return changeStamps(minX, minY, maxX, maxY, 1);
+    }
+
+    /**
+     * Removes a footprint from every cell of the given rectangle
+     *
+     * Cells out of bounds (or with no footprint left) are ignored.
+     *
+     * @param minX The left column of the footprint
+     * @param minY The bottom row of the footprint
+     * @param maxX The right column of the footprint (inclusive)
+     * @param maxY The top row of the footprint (inclusive)
+     * @return True if any cell stopped being a wall
+     */
+    public boolean unstampCells(int minX, int minY, int maxX, int maxY) {
+        return changeStamps(minX, minY, maxX, maxY, -1);
+    }
+
+    /**
+     * Adds to the footprint count of a rectangle and refreshes what changed
+     *
+     * The clearance, regions and listeners are only updated for the smallest
+     * rectangle holding every cell that became (or stopped being) a wall.
+     *
+     * @return True if any wall changed
+     */
+    private boolean changeStamps(int minX, int minY, int maxX, int maxY, int delta) {
+        int x0 = Math.max(0, Math.min(minX, maxX));
+        int y0 = Math.max(0, Math.min(minY, maxY));
+        int x1 = Math.min(width - 1, Math.max(minX, maxX));
+        int y1 = Math.min(height - 1, Math.max(minY, maxY));
+
+        int dirtyX0 = width, dirtyY0 = height, dirtyX1 = -1, dirtyY1 = -1;
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                int cell = index(x, y);
+                int count = Math.max(0, stamps[cell] + delta);
+                stamps[cell] = (short)Math.min(count, Short.MAX_VALUE);
+                long bit = 1L << x;
+                int word = word(x, y);
+                long value = (count > 0 || (fixedWalls[word] & bit) != 0) ? bit : 0L;
+                if ((walls[word] & bit) != value) {
+                    walls[word] ^= bit;
+                    dirtyX0 = Math.min(dirtyX0, x);
+                    dirtyY0 = Math.min(dirtyY0, y);
+                    dirtyX1 = Math.max(dirtyX1, x);
+                    dirtyY1 = y;
+                }
             }
         }
+        if (dirtyX1 < 0) {
+            return false;
+        }
+
+        updateClearance(dirtyX0, dirtyY0, dirtyX1, dirtyY1);
+        updateRegions(dirtyX0, dirtyY0, dirtyX1, dirtyY1);
+        wallVersion++;
+        notifyListeners(dirtyX0, dirtyY0, dirtyX1, dirtyY1);
+        return true;
+    }
+
+    /**
+     * Tells every listener that the walls changed in the given rectangle
+     */
+    private void notifyListeners(int minX, int minY, int maxX, int maxY) {
+        for (int ii = 0; ii < listeners.size; ii++) {
+            listeners.get(ii).cellsChanged(this, minX, minY, maxX, maxY);
+        }
     }
 
     /**
@@ -124,17 +517,52 @@ public class Grid {
     }
 
     /**
-     * Gets the tile state at the specified grid coordinates
+     * Returns the row-major index of the specified grid cell
+     *
+     * Cell indices run from 0 to width*height-1 and are the preferred way for
+     * pathfinding code to key its own per-cell arrays.
      *
      * @param x The x grid coordinate
      * @param y The y grid coordinate
-     * @return The tile state or null if out of bounds
+     * @return The row-major index of the cell
      */
-    private TileState getTileState(int x, int y) {
-        if (!inBounds(x, y)) {
-            return null;
-        }
-        return grid[x][y];
+    public int index(int x, int y) {
+        return y * width + x;
+    }
+
+    /**
+     * Returns the word holding the bit for the specified cell in a bit layer
+     *
+     * The bit within the word is (1L << x), as Java masks the shift amount.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @return The index of the word in the bit layer
+     */
+    private int word(int x, int y) {
+        return y * wordsPerRow + (x >>> 6);
+    }
+
+    /**
+     * Returns the number of 64-bit words in one row of a bit layer
+     *
+     * @return the number of 64-bit words in one row of a bit layer
+     */
+    int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    /**
+     * Returns the wall bit layer for bit-parallel queries (see {@link BitFlood})
+     *
+     * Row y starts at word y*getWordsPerRow(), and cell x of the row is bit
+     * (x & 63) of word (x >>> 6). Bits past the width of a row are always 0.
+     * The array is live, so callers must not modify it.
+     *
+     * @return the wall bit layer
+     */
+    long[] getWallWords() {
+        return walls;
     }
 
     /**
@@ -145,7 +573,308 @@ public class Grid {
      * @return True if the cell is a wall, false otherwise
      */
     public boolean isWall(int x, int y) {
-        return grid[x][y].wall;
+        return (walls[word(x, y)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Returns the distance from the specified grid cell to the nearest wall
+     *
+     * This is the chessboard distance in tiles, treating the outside of the
+     * map as wall, and capped at {@link #MAX_CLEARANCE}. Walls have clearance
+     * 0, and open tiles touching a wall (even diagonally) have clearance 1.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @return The clearance of the cell
+     */
+    public int getClearance(int x, int y) {
+        return clearance[index(x, y)];
+    }
+
+    /**
+     * Returns the clearance a tile needs to hold an agent of the given radius
+     *
+     * The agent is assumed to stand at the center of the tile. The result is
+     * at least 1 (any open tile) and at most {@link #MAX_CLEARANCE}.
+     *
+     * @param radius The agent radius in physics units
+     * @return The clearance a tile needs to hold the agent
+     */
+    public int getRequiredClearance(float radius) {
+        int required = (int)Math.ceil(radius / tileSize + 0.5f);
+        return Math.max(1, Math.min(MAX_CLEARANCE, required));
+    }
+
+    /**
+     * Recomputes the clearance around walls that changed in the given rectangle
+     *
+     * Only tiles within {@link #MAX_CLEARANCE} of the rectangle can change,
+     * so the cost is proportional to the size of the change, not the map.
+     *
+     * @param minX The left column of the changed cells
+     * @param minY The bottom row of the changed cells
+     * @param maxX The right column of the changed cells (inclusive)
+     * @param maxY The top row of the changed cells (inclusive)
+     */
+    public void updateClearance(int minX, int minY, int maxX, int maxY) {
+        computeClearance(Math.max(0, Math.min(minX, maxX) - MAX_CLEARANCE),
+                Math.max(0, Math.min(minY, maxY) - MAX_CLEARANCE),
+                Math.min(width - 1, Math.max(minX, maxX) + MAX_CLEARANCE),
+                Math.min(height - 1, Math.max(minY, maxY) + MAX_CLEARANCE));
+    }
+
+    /**
+     * Computes the clearance of every tile in the given rectangle
+     *
+     * This is the two-pass chessboard distance transform. The first pass
+     * pulls distances from the neighbours below and to the left, the second
+     * from the neighbours above and to the right. Tiles outside the rectangle
+     * are read as they are, so they must already be correct.
+     */
+    private void computeClearance(int x0, int y0, int x1, int y1) {
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                int value = 0;
+                if (!isWall(x, y)) {
+                    value = MAX_CLEARANCE;
+                    value = Math.min(value, clearanceAt(x - 1, y) + 1);
+                    value = Math.min(value, clearanceAt(x - 1, y - 1) + 1);
+                    value = Math.min(value, clearanceAt(x, y - 1) + 1);
+                    value = Math.min(value, clearanceAt(x + 1, y - 1) + 1);
+                }
+                clearance[index(x, y)] = (byte)value;
+            }
+        }
+        for (int y = y1; y >= y0; y--) {
+            for (int x = x1; x >= x0; x--) {
+                int value = clearance[index(x, y)];
+                if (value > 0) {
+                    value = Math.min(value, clearanceAt(x + 1, y) + 1);
+                    value = Math.min(value, clearanceAt(x + 1, y + 1) + 1);
+                    value = Math.min(value, clearanceAt(x, y + 1) + 1);
+                    value = Math.min(value, clearanceAt(x - 1, y + 1) + 1);
+                    clearance[index(x, y)] = (byte)value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the clearance of a cell, or 0 if it is out of bounds
+     */
+    private int clearanceAt(int x, int y) {
+        return inBounds(x, y) ? clearance[index(x, y)] : 0;
+    }
+
+    /**
+     * Returns the connected region of the specified grid cell
+     *
+     * Open cells that can reach each other (moving between edge-adjacent open
+     * cells) share a positive label. Walls are in region 0. Diagonal moves
+     * that do not cut corners never join two regions, so the labels hold for
+     * 8-way movement as well.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @return The region label of the cell, or 0 for a wall
+     */
+    public int getRegion(int x, int y) {
+        return regions[index(x, y)];
+    }
+
+    /**
+     * Returns false if an agent certainly cannot walk from one cell to another
+     *
+     * This is O(1). It is false if either cell is out of bounds, the goal is
+     * a wall, or the two cells are in different regions. An agent pushed into
+     * a wall is treated as being in the regions of the open cells beside it.
+     * A true result means the goal is reachable by an agent of clearance 1;
+     * wider agents may still fail to fit.
+     *
+     * @param startX The x grid coordinate of the start
+     * @param startY The y grid coordinate of the start
+     * @param goalX  The x grid coordinate of the goal
+     * @param goalY  The y grid coordinate of the goal
+     * @return False if the goal is certainly unreachable from the start
+     */
+    public boolean canReach(int startX, int startY, int goalX, int goalY) {
+        if (!inBounds(startX, startY) || !inBounds(goalX, goalY)) {
+            return false;
+        }
+        int goal = regions[index(goalX, goalY)];
+        if (goal == 0) {
+            return false;
+        }
+        int start = regions[index(startX, startY)];
+        if (start != 0) {
+            return start == goal;
+        }
+        return regionAt(startX + 1, startY) == goal || regionAt(startX - 1, startY) == goal
+                || regionAt(startX, startY + 1) == goal || regionAt(startX, startY - 1) == goal;
+    }
+
+    /**
+     * Relabels the regions around walls that changed in the given rectangle
+     *
+     * Only the regions touching the rectangle (or its border) can split or
+     * merge, so only they are flood filled again. Every other region keeps
+     * its label.
+     *
+     * @param minX The left column of the changed cells
+     * @param minY The bottom row of the changed cells
+     * @param maxX The right column of the changed cells (inclusive)
+     * @param maxY The top row of the changed cells (inclusive)
+     */
+    public void updateRegions(int minX, int minY, int maxX, int maxY) {
+        labelRegions(Math.max(0, Math.min(minX, maxX) - 1), Math.max(0, Math.min(minY, maxY) - 1),
+                Math.min(width - 1, Math.max(minX, maxX) + 1), Math.min(height - 1, Math.max(minY, maxY) + 1));
+    }
+
+    /**
+     * Gives a fresh label to every region with an open cell in the rectangle
+     *
+     * Each region is flood filled once, starting from its first open cell in
+     * the rectangle. Walls in the rectangle are set to region 0.
+     */
+    private void labelRegions(int x0, int y0, int x1, int y1) {
+        relabelStamp++;
+        if (relabelStamp == Integer.MAX_VALUE) {
+            Arrays.fill(relabelled, 0);
+            relabelStamp = 1;
+        }
+        if (regionCount > Integer.MAX_VALUE - width * height) {
+            // Out of fresh labels, so start over from 1 across the whole grid
+            regionCount = 0;
+            x0 = 0;
+            y0 = 0;
+            x1 = width - 1;
+            y1 = height - 1;
+        }
+
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                int cell = index(x, y);
+                if (isWall(x, y)) {
+                    regions[cell] = 0;
+                } else if (relabelled[cell] != relabelStamp) {
+                    floodRegion(cell, ++regionCount);
+                }
+            }
+        }
+    }
+
+    /**
+     * Flood fills the region containing the given open cell with a label
+     */
+    private void floodRegion(int start, int label) {
+        frontier.clear();
+        frontier.add(start);
+        regions[start] = label;
+        relabelled[start] = relabelStamp;
+        while (frontier.size > 0) {
+            int cell = frontier.pop();
+            int x = cell % width;
+            int y = cell / width;
+            if (x > 0) {
+                spreadRegion(cell - 1, x - 1, y, label);
+            }
+            if (x < width - 1) {
+                spreadRegion(cell + 1, x + 1, y, label);
+            }
+            if (y > 0) {
+                spreadRegion(cell - width, x, y - 1, label);
+            }
+            if (y < height - 1) {
+                spreadRegion(cell + width, x, y + 1, label);
+            }
+        }
+    }
+
+    /**
+     * Adds an open, unlabelled neighbour to the current flood fill
+     */
+    private void spreadRegion(int cell, int x, int y, int label) {
+        if (relabelled[cell] != relabelStamp && !isWall(x, y)) {
+            regions[cell] = label;
+            relabelled[cell] = relabelStamp;
+            frontier.add(cell);
+        }
+    }
+
+    /**
+     * Returns the region of a cell, or 0 if it is out of bounds
+     */
+    private int regionAt(int x, int y) {
+        return inBounds(x, y) ? regions[index(x, y)] : 0;
+    }
+
+    /**
+     * Returns true if the segment between two cell centers crosses no walls
+     *
+     * @param x0 The x grid coordinate of the first cell
+     * @param y0 The y grid coordinate of the first cell
+     * @param x1 The x grid coordinate of the second cell
+     * @param y1 The y grid coordinate of the second cell
+     * @return True if the segment crosses no walls
+     */
+    public boolean hasLineOfSight(int x0, int y0, int x1, int y1) {
+        return hasLineOfSight(x0, y0, x1, y1, 1);
+    }
+
+    /**
+     * Returns true if every cell on the segment between two cell centers has
+     * the given clearance
+     *
+     * The segment is walked cell by cell with integer arithmetic (a grid DDA),
+     * visiting every cell it passes through. Where it passes exactly through
+     * a corner, both cells beside the corner must be clear, so a line never
+     * slips between two diagonal walls. The first cell is not tested (an
+     * agent may have been pushed into a wall), but the last one is.
+     *
+     * @param x0        The x grid coordinate of the first cell
+     * @param y0        The y grid coordinate of the first cell
+     * @param x1        The x grid coordinate of the second cell
+     * @param y1        The y grid coordinate of the second cell
+     * @param clearance The clearance every cell needs (1 for any open cell)
+     * @return True if every cell after the first has the given clearance
+     */
+    public boolean hasLineOfSight(int x0, int y0, int x1, int y1, int clearance) {
+        int nx = Math.abs(x1 - x0);
+        int ny = Math.abs(y1 - y0);
+        int sx = x1 > x0 ? 1 : -1;
+        int sy = y1 > y0 ? 1 : -1;
+        int x = x0;
+        int y = y0;
+        for (int ix = 0, iy = 0; ix < nx || iy < ny; ) {
+            // Compare where the segment crosses the next vertical and horizontal lines
+            long decision = (long)(1 + 2 * ix) * ny - (long)(1 + 2 * iy) * nx;
+            if (decision == 0) {
+                if (!isClear(x + sx, y, clearance) || !isClear(x, y + sy, clearance)) {
+                    return false;
+                }
+                x += sx;
+                y += sy;
+                ix++;
+                iy++;
+            } else if (decision < 0) {
+                x += sx;
+                ix++;
+            } else {
+                y += sy;
+                iy++;
+            }
+            if (!isClear(x, y, clearance)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the cell is in bounds and has the required clearance
+     */
+    private boolean isClear(int x, int y, int required) {
+        return inBounds(x, y) && clearance[index(x, y)] >= required;
     }
 
     /**
@@ -156,7 +885,7 @@ public class Grid {
      * @return True if the cell has been visited, false otherwise
      */
     public boolean isVisited(int x, int y) {
-        return grid[x][y].visited;
+        return visited[index(x, y)] == generation;
     }
 
     /**
@@ -166,7 +895,7 @@ public class Grid {
      * @param y The y grid coordinate
      */
     public void setVisited(int x, int y) {
-        grid[x][y].visited = true;
+        visited[index(x, y)] = generation;
     }
 
 
@@ -178,7 +907,7 @@ public class Grid {
      * @return True if the cell is a goal, false otherwise
      */
     public boolean isGoal(int x, int y) {
-        return grid[x][y].goal;
+        return goals[index(x, y)] == generation;
     }
 
     /**
@@ -224,18 +953,21 @@ public class Grid {
         if (!inBounds(x, y)) {
             return;
         }
-        grid[x][y].goal = true;
+        goals[index(x, y)] = generation;
     }
 
     /**
      * Clears all visited marks and goals for pathfinding
+     *
+     * This is O(1): it advances the generation so every existing stamp is stale.
+     * The stamp arrays are only rewritten when the counter wraps around.
      */
     public void clearMarks() {
-        for (int i = 0; i < width; i++) {
-            for (int j = 0; j < height; j++) {
-                grid[i][j].visited = false;
-                grid[i][j].goal = false;
-            }
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            Arrays.fill(goals, 0);
+            generation = 1;
         }
     }
 
@@ -259,13 +991,33 @@ public class Grid {
         return (int)((physicsY - bounds.y) / tileSize);
     }
 
+    /**
+     * Converts grid coordinates to the physics coordinates of the cell center
+     *
+     * @param gridX The x coordinate in grid space
+     * @return The x coordinate of the cell center in physics space
+     */
+    public float gridToPhysicsX(int gridX) {
+        return bounds.x + (gridX + 0.5f) * tileSize;
+    }
+
+    /**
+     * Converts grid coordinates to the physics coordinates of the cell center
+     *
+     * @param gridY The y coordinate in grid space
+     * @return The y coordinate of the cell center in physics space
+     */
+    public float gridToPhysicsY(int gridY) {
+        return bounds.y + (gridY + 0.5f) * tileSize;
+    }
+
     public void printGrid() {
         System.out.println(width);
         System.out.println(height);
         for (int j = height - 1; j >= 0; j--) {
             String[] row = new String[width];
             for (int i = 0; i < width; i++) {
-                row[i] = grid[i][j].wall ? "X" : "O";
+                row[i] = isWall(i, j) ? "X" : "O";
             }
             System.out.println(String.join(" ", row));
         }
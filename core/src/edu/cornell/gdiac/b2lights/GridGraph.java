@@ -0,0 +1,312 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.ai.pfa.Connection;
+import com.badlogic.gdx.ai.pfa.GraphPath;
+import com.badlogic.gdx.ai.pfa.Heuristic;
+import com.badlogic.gdx.ai.pfa.indexed.IndexedGraph;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+
+/**
+ * The walls of a {@link Grid} as a gdx-ai {@link IndexedGraph}
+ *
+ * This lets the stock gdx-ai searches (such as IndexedAStarPathFinder, with
+ * its metrics) run on the grid. gdx-ai asks for the connections of a node on
+ * every expansion, so nothing is built per call: every cell has one node, the
+ * connections of all cells live in one flat array (eight slots per cell, one
+ * per direction), and each node keeps a ready-made list of the connections it
+ * can use. The lists are filled once when the graph is created, and only
+ * refilled around cells whose walls change.
+ *
+ * Steps follow the same rules as {@link AStarPathfinder}: a cell is open if
+ * its clearance is at least the graph's clearance, and a diagonal step is only
+ * allowed if both orthogonal cells beside it are open, so paths never cut
+ * corners.
+ */
+public class GridGraph implements IndexedGraph<GridGraph.Node>, Grid.ChangeListener {
+    /** The cost of a diagonal step */
+    private static final float SQRT2 = 1.4142135f;
+    /** The x offsets of the neighbours: four orthogonal, then four diagonal */
+    private static final int[] DX = {1, 0, -1, 0, 1, -1, -1, 1};
+    /** The y offsets of the neighbours: four orthogonal, then four diagonal */
+    private static final int[] DY = {0, 1, 0, -1, 1, 1, -1, -1};
+
+    /**
+     * A cell of the grid
+     */
+    public static class Node {
+        /** The x grid coordinate */
+        public final int x;
+        /** The y grid coordinate */
+        public final int y;
+        /** The cell index (see {@link Grid#index}) */
+        public final int index;
+
+        private Node(int x, int y, int index) {
+            this.x = x;
+            this.y = y;
+            this.index = index;
+        }
+    }
+
+    /**
+     * A step from a cell to one of its neighbours
+     */
+    private static class Step implements Connection<Node> {
+        private final Node from;
+        private final Node to;
+        private final float cost;
+
+        private Step(Node from, Node to, float cost) {
+            this.from = from;
+            this.to = to;
+            this.cost = cost;
+        }
+
+        @Override
+        public float getCost() {
+            return cost;
+        }
+
+        @Override
+        public Node getFromNode() {
+            return from;
+        }
+
+        @Override
+        public Node getToNode() {
+            return to;
+        }
+    }
+
+    /** The grid the graph covers */
+    private Grid grid;
+    /** The grid width (in cells) */
+    private int width;
+    /** The grid height (in cells) */
+    private int height;
+    /** The node of each cell (indexed by cell index) */
+    private Node[] nodes;
+    /** The step from each cell in each direction (eight per cell), made on first use */
+    private Step[] steps;
+    /** The steps each cell can currently take (indexed by cell index) */
+    private Array<Connection<Node>>[] connections;
+    /** Whether diagonal steps are allowed */
+    private boolean diagonal;
+    /** The smallest clearance a cell needs to be open */
+    private int clearance;
+    /** The distance estimate matching the allowed steps */
+    private Heuristic<Node> heuristic;
+
+    /**
+     * Creates a graph over the given grid
+     *
+     * The graph registers itself with the grid, so it follows any footprints
+     * stamped later.
+     *
+     * @param grid     The grid to cover
+     * @param diagonal Whether diagonal steps are allowed
+     */
+    @SuppressWarnings("unchecked")
+    public GridGraph(Grid grid, boolean diagonal) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        this.height = grid.getHeight();
+        this.diagonal = diagonal;
+        this.clearance = 1;
+
+        int size = width * height;
+        nodes = new Node[size];
+        steps = new Step[8 * size];
+        connections = new Array[size];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int ii = grid.index(x, y);
+                nodes[ii] = new Node(x, y, ii);
+                connections[ii] = new Array<Connection<Node>>(true, 8);
+            }
+        }
+        heuristic = new Heuristic<Node>() {
+            @Override
+            public float estimate(Node node, Node endNode) {
+                int dx = Math.abs(endNode.x - node.x);
+                int dy = Math.abs(endNode.y - node.y);
+                if (!GridGraph.this.diagonal) {
+                    return dx + dy;
+                }
+                return Math.max(dx, dy) + (SQRT2 - 1) * Math.min(dx, dy);
+            }
+        };
+        link(0, 0, width - 1, height - 1);
+        grid.addChangeListener(this);
+    }
+
+    /**
+     * Returns the grid the graph covers
+     *
+     * @return the grid the graph covers
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Returns true if diagonal steps are allowed
+     *
+     * @return true if diagonal steps are allowed
+     */
+    public boolean isDiagonal() {
+        return diagonal;
+    }
+
+    /**
+     * Sets whether diagonal steps are allowed
+     *
+     * This relinks the whole graph, so it should not be called every frame.
+     *
+     * @param value Whether diagonal steps are allowed
+     */
+    public void setDiagonal(boolean value) {
+        if (diagonal != value) {
+            diagonal = value;
+            link(0, 0, width - 1, height - 1);
+        }
+    }
+
+    /**
+     * Returns the smallest clearance a cell needs to be open
+     *
+     * @return the smallest clearance a cell needs to be open
+     */
+    public int getClearance() {
+        return clearance;
+    }
+
+    /**
+     * Sets the smallest clearance a cell needs to be open
+     *
+     * This relinks the whole graph, so it should not be called every frame.
+     *
+     * @param value The smallest clearance a cell needs (see {@link Grid#getRequiredClearance})
+     */
+    public void setClearance(int value) {
+        value = Math.max(1, Math.min(value, Grid.MAX_CLEARANCE));
+        if (clearance != value) {
+            clearance = value;
+            link(0, 0, width - 1, height - 1);
+        }
+    }
+
+    /**
+     * Returns the admissible distance estimate for searches on this graph
+     *
+     * This is the octile distance with diagonal steps, and the Manhattan
+     * distance without. It follows later calls to {@link #setDiagonal}.
+     *
+     * @return the admissible distance estimate for searches on this graph
+     */
+    public Heuristic<Node> getHeuristic() {
+        return heuristic;
+    }
+
+    /**
+     * Returns the node of a cell, or null if it is out of bounds
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @return the node of a cell
+     */
+    public Node getNode(int x, int y) {
+        return grid.inBounds(x, y) ? nodes[grid.index(x, y)] : null;
+    }
+
+    /**
+     * Copies the cells of a found path into an array of cell indices
+     *
+     * @param path The path found by a gdx-ai search
+     * @param out  The array to hold the cell indices (cleared first)
+     */
+    public void toCells(GraphPath<Node> path, IntArray out) {
+        out.clear();
+        for (int ii = 0; ii < path.getCount(); ii++) {
+            out.add(path.get(ii).index);
+        }
+    }
+
+    @Override
+    public int getIndex(Node node) {
+        return node.index;
+    }
+
+    @Override
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    @Override
+    public Array<Connection<Node>> getConnections(Node fromNode) {
+        return connections[fromNode.index];
+    }
+
+    /**
+     * Relinks the cells around a change to the walls
+     *
+     * A cell's clearance can only cross the graph's threshold within that many
+     * cells of the change, and a step can only change if one of the cells it
+     * touches did, so that is how far the relinking reaches.
+     */
+    @Override
+    public void cellsChanged(Grid grid, int minX, int minY, int maxX, int maxY) {
+        int reach = clearance + 1;
+        link(Math.max(0, minX - reach), Math.max(0, minY - reach),
+                Math.min(width - 1, maxX + reach), Math.min(height - 1, maxY + reach));
+    }
+
+    /**
+     * Refills the connection lists of a rectangle of cells
+     */
+    private void link(int x0, int y0, int x1, int y1) {
+        int dirs = diagonal ? 8 : 4;
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                int ii = grid.index(x, y);
+                Array<Connection<Node>> list = connections[ii];
+                list.clear();
+                // Closed cells keep their steps out, for agents pushed into a wall
+                for (int d = 0; d < dirs; d++) {
+                    if (canStep(x, y, DX[d], DY[d])) {
+                        list.add(getStep(ii, d, x + DX[d], y + DY[d]));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the step from a cell in a direction, making it the first time
+     */
+    private Step getStep(int from, int d, int x, int y) {
+        int slot = 8 * from + d;
+        if (steps[slot] == null) {
+            steps[slot] = new Step(nodes[from], nodes[grid.index(x, y)], d < 4 ? 1.0f : SQRT2);
+        }
+        return steps[slot];
+    }
+
+    /**
+     * Returns true if a step from a cell in the given direction is allowed
+     */
+    private boolean canStep(int x, int y, int dx, int dy) {
+        if (!isOpen(x + dx, y + dy)) {
+            return false;
+        }
+        return dx == 0 || dy == 0 || (isOpen(x + dx, y) && isOpen(x, y + dy));
+    }
+
+    /**
+     * Returns true if the cell is in bounds and has the required clearance
+     */
+    private boolean isOpen(int x, int y) {
+        return grid.inBounds(x, y) && grid.getClearance(x, y) >= clearance;
+    }
+}
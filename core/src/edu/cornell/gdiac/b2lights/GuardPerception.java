@@ -0,0 +1,339 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.FloatArray;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The perception phase of the guard update, run in parallel over batches of guards
+ *
+ * Each frame starts with a {@link #snapshot} of what the guards can sense
+ * (the guard and player positions and the alerts of the frame), taken on the
+ * game thread. {@link #perceive} then decides, for every guard, what it heard
+ * and which players it can see. A player is seen if it is inside the guard's
+ * view cone (tested exactly, from the guard's actual facing) and its cell is
+ * set in the guard's {@link VisibilityMap}, which is brought up to date first
+ * (usually for free, as it is cached until the guard changes cell). This phase only
+ * reads the snapshot and the grid, and each guard writes only its own result
+ * slot and map, so batches of guards run on a fork/join pool with no locking.
+ *
+ * If walls are given with {@link #setWalls}, each guard instead computes its
+ * exact {@link VisibilityPolygon} and sees the players inside it and inside
+ * its cone. This costs a sweep per guard per frame, but does not round the
+ * view to grid cells.
+ *
+ * Acting on the results (changing targets, timers and flags) is left to a
+ * single-threaded apply phase on the game thread, which walks the guards in
+ * index order. As perception never depends on the order the guards are
+ * visited in, the results are exactly those of a sequential run.
+ */
+public class GuardPerception implements Disposable {
+    /** The result flag for a guard that heard a meow */
+    public static final int HEARD_MEOW = 1;
+    /** The result flag for a guard alerted by the security camera */
+    public static final int CAMERA_ALERT = 2;
+    /** The result flag for a guard that sees the active avatar */
+    public static final int SAW_AVATAR = 4;
+    /** The result flag for a guard that sees the AFK avatar */
+    public static final int SAW_AVATAR_AFK = 8;
+
+    /** The number of guards perceived by one task */
+    private static final int BATCH = 16;
+    /** The squared maximum distance at which a guard sees a player */
+    private static final float FOV_DISTANCE2 = Guard.FOV_DISTANCE * Guard.FOV_DISTANCE;
+    /** The squared cosine of half the angle of a guard's field of view */
+    private static final float FOV_COS2;
+    static {
+        float cos = MathUtils.cosDeg(Guard.FOV_ANGLE / 2);
+        FOV_COS2 = cos * cos;
+    }
+
+    /**
+     * A range of guards perceived by one task, split in half until it fits a batch
+     */
+    private class Batch extends RecursiveAction {
+        /** The first guard of the range */
+        final int from;
+        /** The guard after the last one of the range */
+        final int to;
+
+        Batch(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH) {
+                perceive(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Batch(from, middle), new Batch(middle, to));
+        }
+    }
+
+    /** The worker threads, or null to perceive on the calling thread */
+    private ForkJoinPool pool;
+    /** The result flags of each guard from the last perception */
+    private int[] results = new int[0];
+    /** The parallel results, kept while {@link #matchesSequential} reruns the guards */
+    private int[] parallelResults = new int[0];
+
+    /** The x coordinate of each guard in the snapshot */
+    private float[] guardX = new float[0];
+    /** The y coordinate of each guard in the snapshot */
+    private float[] guardY = new float[0];
+    /** The facing of each guard in the snapshot (in radians) */
+    private float[] facing = new float[0];
+    /** The visibility map of each guard in the snapshot */
+    private VisibilityMap[] maps = new VisibilityMap[0];
+    /** The walls for exact visibility, or null to use the visibility maps */
+    private VisibilityPolygon walls;
+    /** The visibility polygon of each guard from the last perception (with exact walls) */
+    private FloatArray[] polygons = new FloatArray[0];
+
+    /** The x coordinate of the active avatar in the snapshot */
+    private float avatarX;
+    /** The y coordinate of the active avatar in the snapshot */
+    private float avatarY;
+    /** The x coordinate of the AFK avatar in the snapshot */
+    private float avatarAFKX;
+    /** The y coordinate of the AFK avatar in the snapshot */
+    private float avatarAFKY;
+    /** Whether the active avatar meowed this frame */
+    private boolean meowed;
+    /** Whether the security camera sees the active avatar this frame */
+    private boolean cameraAlert;
+
+    /**
+     * Creates a perception phase with the given number of worker threads
+     *
+     * With one thread (or fewer), guards are perceived on the calling thread.
+     *
+     * @param threads The number of worker threads
+     */
+    public GuardPerception(int threads) {
+        if (threads > 1) {
+            pool = new ForkJoinPool(threads);
+        }
+    }
+
+    /**
+     * Returns true if guards are perceived on worker threads
+     *
+     * @return true if guards are perceived on worker threads
+     */
+    public boolean isParallel() {
+        return pool != null;
+    }
+
+    /**
+     * Sets the walls for exact visibility polygons
+     *
+     * With null walls, guards see with their cached grid maps instead.
+     *
+     * @param walls The walls of the level, or null to use the visibility maps
+     */
+    public void setWalls(VisibilityPolygon walls) {
+        this.walls = walls;
+    }
+
+    /**
+     * Returns the visibility polygon of a guard from the last perception
+     *
+     * This is only computed when walls are set. It is the area the guard
+     * could see all around within {@link Guard#FOV_DISTANCE} (before the cone
+     * is applied), as x,y pairs in counterclockwise order, which may also be
+     * used to build the mesh of a light.
+     *
+     * @param guard The guard index
+     * @return the visibility polygon of a guard (null if never computed)
+     */
+    public FloatArray getPolygon(int guard) {
+        return guard < polygons.length ? polygons[guard] : null;
+    }
+
+    /**
+     * Freezes the state the guards perceive this frame
+     *
+     * A guard faces a quarter turn counterclockwise of its body angle, the
+     * direction its vision cone is attached at. Guards without a visibility
+     * map on this grid are given one.
+     *
+     * @param guards      The guards of the level
+     * @param grid        The grid that blocks the view of the guards
+     * @param avatar      The active avatar
+     * @param avatarAFK   The AFK avatar
+     * @param meowed      Whether the active avatar meowed this frame
+     * @param cameraAlert Whether the security camera sees the active avatar
+     */
+    public void snapshot(GuardSystem guards, Grid grid, DudeModel avatar, DudeModel avatarAFK,
+                         boolean meowed, boolean cameraAlert) {
+        int size = guards.size();
+        if (guardX.length < size) {
+            guardX = new float[size];
+            guardY = new float[size];
+            facing = new float[size];
+            maps = new VisibilityMap[size];
+        }
+        if (walls != null && polygons.length < size) {
+            FloatArray[] old = polygons;
+            polygons = new FloatArray[size];
+            System.arraycopy(old, 0, polygons, 0, old.length);
+            for (int ii = old.length; ii < size; ii++) {
+                polygons[ii] = new FloatArray();
+            }
+        }
+        for (int ii = 0; ii < size; ii++) {
+            Guard guard = guards.getGuard(ii);
+            guardX[ii] = guard.getX();
+            guardY[ii] = guard.getY();
+            facing[ii] = guard.getAngle() + MathUtils.HALF_PI;
+            VisibilityMap map = guards.getVisibility(ii);
+            if (map == null || map.getGrid() != grid) {
+                map = new VisibilityMap(grid, Guard.FOV_DISTANCE);
+                guards.setVisibility(ii, map);
+            }
+            maps[ii] = map;
+        }
+        avatarX = avatar.getX();
+        avatarY = avatar.getY();
+        avatarAFKX = avatarAFK.getX();
+        avatarAFKY = avatarAFK.getY();
+        this.meowed = meowed;
+        this.cameraAlert = cameraAlert;
+    }
+
+    /**
+     * Decides what every guard perceives in the current snapshot
+     *
+     * This returns once every guard has a result. The grid must not change
+     * until then.
+     *
+     * @param guards The guards of the level (as in the snapshot)
+     */
+    public void perceive(GuardSystem guards) {
+        if (results.length < guards.size()) {
+            results = new int[guards.size()];
+        }
+        if (pool == null || guards.size() <= BATCH) {
+            perceive(0, guards.size());
+        } else {
+            pool.invoke(new Batch(0, guards.size()));
+        }
+    }
+
+    /**
+     * Returns true if a sequential run gives the same results as the last perception
+     *
+     * This perceives every guard again, one after another on the calling
+     * thread, from the same snapshot, and compares each guard's result with
+     * the one from {@link #perceive}. The results of {@link #perceive} are
+     * kept either way. This is a debugging check of the promise that batches
+     * on worker threads never change what the guards perceive; it doubles
+     * the cost of perception.
+     *
+     * @param guards The guards of the level (as in the snapshot)
+     * @return true if the sequential run gives the same results
+     */
+    public boolean matchesSequential(GuardSystem guards) {
+        int size = guards.size();
+        if (parallelResults.length < size) {
+            parallelResults = new int[size];
+        }
+        System.arraycopy(results, 0, parallelResults, 0, size);
+        perceive(0, size);
+        boolean same = true;
+        for (int ii = 0; ii < size; ii++) {
+            same &= results[ii] == parallelResults[ii];
+        }
+        System.arraycopy(parallelResults, 0, results, 0, size);
+        return same;
+    }
+
+    /**
+     * Decides what a range of guards perceives in the current snapshot
+     *
+     * @param from The first guard of the range
+     * @param to   The guard after the last one of the range
+     */
+    private void perceive(int from, int to) {
+        int alerts = (meowed ? HEARD_MEOW : 0) | (cameraAlert ? CAMERA_ALERT : 0);
+        for (int ii = from; ii < to; ii++) {
+            int result = alerts;
+            float facingX = MathUtils.cos(facing[ii]);
+            float facingY = MathUtils.sin(facing[ii]);
+            boolean avatarInCone = inCone(guardX[ii], guardY[ii], facingX, facingY, avatarX, avatarY);
+            boolean avatarAFKInCone = inCone(guardX[ii], guardY[ii], facingX, facingY, avatarAFKX, avatarAFKY);
+            if (walls != null) {
+                FloatArray polygon = polygons[ii];
+                walls.compute(guardX[ii], guardY[ii], Guard.FOV_DISTANCE, polygon);
+                if (avatarInCone && VisibilityPolygon.contains(polygon, avatarX, avatarY)) {
+                    result |= SAW_AVATAR;
+                }
+                if (avatarAFKInCone && VisibilityPolygon.contains(polygon, avatarAFKX, avatarAFKY)) {
+                    result |= SAW_AVATAR_AFK;
+                }
+            } else {
+                VisibilityMap map = maps[ii];
+                map.update(guardX[ii], guardY[ii]);
+                if (avatarInCone && map.isVisible(avatarX, avatarY)) {
+                    result |= SAW_AVATAR;
+                }
+                if (avatarAFKInCone && map.isVisible(avatarAFKX, avatarAFKY)) {
+                    result |= SAW_AVATAR_AFK;
+                }
+            }
+            results[ii] = result;
+        }
+    }
+
+    /**
+     * Returns true if a point is within a guard's view distance and cone, ignoring walls
+     *
+     * @param x       The x coordinate of the guard (in physics units)
+     * @param y       The y coordinate of the guard (in physics units)
+     * @param facingX The x component of the guard's unit facing direction
+     * @param facingY The y component of the guard's unit facing direction
+     * @param targetX The x coordinate of the point (in physics units)
+     * @param targetY The y coordinate of the point (in physics units)
+     * @return true if the point is within the guard's view distance and cone
+     */
+    private static boolean inCone(float x, float y, float facingX, float facingY,
+                                  float targetX, float targetY) {
+        float dx = targetX - x;
+        float dy = targetY - y;
+        float distance2 = dx * dx + dy * dy;
+        if (distance2 > FOV_DISTANCE2) {
+            return false;
+        }
+        float dot = dx * facingX + dy * facingY;
+        return distance2 == 0 || (dot >= 0 && dot * dot >= FOV_COS2 * distance2);
+    }
+
+    /**
+     * Returns true if a guard perceived all of the given flags
+     *
+     * @param guard The guard index
+     * @param flag  The result flags to test (HEARD_MEOW, SAW_AVATAR, etc.)
+     * @return true if a guard perceived all of the given flags
+     */
+    public boolean hasResult(int guard, int flag) {
+        return (results[guard] & flag) == flag;
+    }
+
+    /**
+     * Stops the worker threads
+     */
+    @Override
+    public void dispose() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.utils.FloatArray;
+import edu.cornell.gdiac.physics.lights.LightSource;
+
+import java.util.Arrays;
+
+/**
+ * The AI state of every guard in a level, stored as parallel arrays
+ *
+ * Each guard is an index from 0 to {@link #size()}. The {@link Guard} bodies
+ * are only the physics and drawing side; the target, chase timer, flags and
+ * patrol progress of guard i are entry i of the arrays here. This keeps the
+ * state of all guards packed together, so the controller can update them in
+ * one pass over the arrays without touching (or allocating) objects per guard.
+ *
+ * All patrol routes share one flat array of points. The storage is sized when
+ * the level is loaded and never grows afterwards.
+ */
+public class GuardSystem {
+    /** The flag for a guard chasing a player */
+    public static final int AGROED = 1;
+    /** The flag for a guard heading to the spot of a meow */
+    public static final int MEOWED = 2;
+    /** The flag for a guard alerted by the security camera */
+    public static final int CAMERA_ALERTED = 4;
+    /** The flag for a guard with a valid target position */
+    public static final int HAS_TARGET = 8;
+    /** The target player of a guard that is not chasing one */
+    public static final int NO_PLAYER = -1;
+
+    /** The number of guards */
+    private int count;
+    /** The physics body of each guard */
+    private Guard[] bodies;
+    /** The vision cone of each guard (null until attached) */
+    private LightSource[] lights;
+    /** The cells each guard can see (null until the grid is known) */
+    private VisibilityMap[] visibility;
+    /** The flags of each guard (a combination of AGROED, MEOWED, etc.) */
+    private int[] flags;
+    /** The frames each guard keeps chasing after losing sight of its player */
+    private int[] chaseTimers;
+    /** The x coordinate of each guard's target (in physics units) */
+    private float[] targetX;
+    /** The y coordinate of each guard's target (in physics units) */
+    private float[] targetY;
+    /** The player each guard is chasing (a DudeType ordinal, or NO_PLAYER) */
+    private int[] targetPlayers;
+    /** The scheduled path search toward each guard's target */
+    private PathScheduler.Request[] requests;
+    /** The offset of each guard's first patrol point in patrolPoints (in points) */
+    private int[] patrolStart;
+    /** The number of patrol points of each guard */
+    private int[] patrolCount;
+    /** The patrol point each guard is heading to (relative to its first) */
+    private int[] patrolIndex;
+    /** The patrol points of every guard, as x,y pairs */
+    private FloatArray patrolPoints;
+
+    /**
+     * Creates storage for the given number of guards
+     *
+     * @param capacity The number of guards in the level
+     */
+    public GuardSystem(int capacity) {
+        bodies = new Guard[capacity];
+        lights = new LightSource[capacity];
+        visibility = new VisibilityMap[capacity];
+        flags = new int[capacity];
+        chaseTimers = new int[capacity];
+        targetX = new float[capacity];
+        targetY = new float[capacity];
+        targetPlayers = new int[capacity];
+        requests = new PathScheduler.Request[capacity];
+        patrolStart = new int[capacity];
+        patrolCount = new int[capacity];
+        patrolIndex = new int[capacity];
+        patrolPoints = new FloatArray();
+        Arrays.fill(targetPlayers, NO_PLAYER);
+    }
+
+    /**
+     * Adds a guard with the given patrol route
+     *
+     * The guard starts out patrolling, heading to the first point of its
+     * route. A guard with no route stands still until alerted.
+     *
+     * @param guard  The physics body of the guard
+     * @param patrol The patrol route, as x,y pairs (in physics units)
+     * @return the index of the new guard
+     */
+    public int add(Guard guard, float[] patrol) {
+        assert count < bodies.length : "Too many guards for this level";
+        int ii = count++;
+        bodies[ii] = guard;
+        requests[ii] = new PathScheduler.Request();
+        patrolStart[ii] = patrolPoints.size / 2;
+        patrolCount[ii] = patrol.length / 2;
+        patrolPoints.addAll(patrol, 0, 2 * patrolCount[ii]);
+        return ii;
+    }
+
+    /**
+     * Returns the number of guards
+     *
+     * @return the number of guards
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns the largest radius of any guard (0 if there are none)
+     *
+     * @return the largest radius of any guard
+     */
+    public float getMaxRadius() {
+        float radius = 0;
+        for (int ii = 0; ii < count; ii++) {
+            radius = Math.max(radius, bodies[ii].getRadius());
+        }
+        return radius;
+    }
+
+    /**
+     * Returns the physics body of a guard
+     *
+     * @param guard The guard index
+     * @return the physics body of a guard
+     */
+    public Guard getGuard(int guard) {
+        return bodies[guard];
+    }
+
+    /**
+     * Returns the vision cone of a guard
+     *
+     * @param guard The guard index
+     * @return the vision cone of a guard
+     */
+    public LightSource getLight(int guard) {
+        return lights[guard];
+    }
+
+    /**
+     * Sets the vision cone of a guard
+     *
+     * @param guard The guard index
+     * @param light The vision cone, attached to the guard's body
+     */
+    public void setLight(int guard, LightSource light) {
+        lights[guard] = light;
+    }
+
+    /**
+     * Returns the cells a guard can see
+     *
+     * @param guard The guard index
+     * @return the cells a guard can see (null until set)
+     */
+    public VisibilityMap getVisibility(int guard) {
+        return visibility[guard];
+    }
+
+    /**
+     * Sets the cells a guard can see
+     *
+     * @param guard The guard index
+     * @param map   The visibility map of the guard, on the current grid
+     */
+    public void setVisibility(int guard, VisibilityMap map) {
+        visibility[guard] = map;
+    }
+
+    /**
+     * Adds the cells any guard can see to a mask (their "danger zone")
+     *
+     * The mask has the layout of the grid's bit layers. A guard's map is
+     * everything in view distance that it could see by turning, not only its
+     * current cone. Guards without a visibility map yet add nothing.
+     *
+     * @param mask The mask to add to
+     */
+    public void addVisibleCells(long[] mask) {
+        for (int ii = 0; ii < count; ii++) {
+            if (visibility[ii] != null) {
+                visibility[ii].addTo(mask);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the guard has all of the given flags
+     *
+     * @param guard The guard index
+     * @param flag  The flags to test (AGROED, MEOWED, etc.)
+     * @return true if the guard has all of the given flags
+     */
+    public boolean hasFlag(int guard, int flag) {
+        return (flags[guard] & flag) == flag;
+    }
+
+    /**
+     * Sets or clears the given flags of a guard
+     *
+     * @param guard The guard index
+     * @param flag  The flags to change (AGROED, MEOWED, etc.)
+     * @param value Whether to set the flags (otherwise they are cleared)
+     */
+    public void setFlag(int guard, int flag, boolean value) {
+        if (value) {
+            flags[guard] |= flag;
+        } else {
+            flags[guard] &= ~flag;
+        }
+    }
+
+    /**
+     * Returns the frames a guard keeps chasing after losing sight of its player
+     *
+     * @param guard The guard index
+     * @return the frames a guard keeps chasing after losing sight of its player
+     */
+    public int getChaseTimer(int guard) {
+        return chaseTimers[guard];
+    }
+
+    /**
+     * Sets the frames a guard keeps chasing after losing sight of its player
+     *
+     * @param guard The guard index
+     * @param value The frames left to chase
+     */
+    public void setChaseTimer(int guard, int value) {
+        chaseTimers[guard] = value;
+    }
+
+    /**
+     * Returns the x coordinate of a guard's target (in physics units)
+     *
+     * This is only valid if the guard has the HAS_TARGET flag.
+     *
+     * @param guard The guard index
+     * @return the x coordinate of a guard's target
+     */
+    public float getTargetX(int guard) {
+        return targetX[guard];
+    }
+
+    /**
+     * Returns the y coordinate of a guard's target (in physics units)
+     *
+     * This is only valid if the guard has the HAS_TARGET flag.
+     *
+     * @param guard The guard index
+     * @return the y coordinate of a guard's target
+     */
+    public float getTargetY(int guard) {
+        return targetY[guard];
+    }
+
+    /**
+     * Sets the position a guard should move to, and gives it the HAS_TARGET flag
+     *
+     * @param guard The guard index
+     * @param x     The x coordinate of the target (in physics units)
+     * @param y     The y coordinate of the target (in physics units)
+     */
+    public void setTarget(int guard, float x, float y) {
+        targetX[guard] = x;
+        targetY[guard] = y;
+        flags[guard] |= HAS_TARGET;
+    }
+
+    /**
+     * Returns the player a guard is chasing
+     *
+     * @param guard The guard index
+     * @return the DudeType ordinal of the player, or NO_PLAYER
+     */
+    public int getTargetPlayer(int guard) {
+        return targetPlayers[guard];
+    }
+
+    /**
+     * Sets the player a guard is chasing, so it can follow that player's flow field
+     *
+     * @param guard  The guard index
+     * @param player The DudeType ordinal of the player, or NO_PLAYER
+     */
+    public void setTargetPlayer(int guard, int player) {
+        targetPlayers[guard] = player;
+    }
+
+    /**
+     * Returns the scheduled path search toward a guard's target (resubmitted every frame)
+     *
+     * @param guard The guard index
+     * @return the scheduled path search toward a guard's target
+     */
+    public PathScheduler.Request getPathRequest(int guard) {
+        return requests[guard];
+    }
+
+    /**
+     * Points a patrolling guard at its current patrol point
+     *
+     * If the guard is within the given distance of that point, it moves on to
+     * the next point of its route (looping back to the first at the end).
+     *
+     * @param guard     The guard index
+     * @param threshold The distance at which a patrol point counts as reached
+     * @return false if the guard has no patrol route
+     */
+    public boolean updatePatrol(int guard, float threshold) {
+        int size = patrolCount[guard];
+        if (size == 0) {
+            return false;
+        }
+        Guard body = bodies[guard];
+        int point = 2 * (patrolStart[guard] + patrolIndex[guard]);
+        float dx = patrolPoints.get(point) - body.getX();
+        float dy = patrolPoints.get(point + 1) - body.getY();
+        if (dx * dx + dy * dy < threshold * threshold) {
+            patrolIndex[guard] = (patrolIndex[guard] + 1) % size;
+            point = 2 * (patrolStart[guard] + patrolIndex[guard]);
+        }
+        setTarget(guard, patrolPoints.get(point), patrolPoints.get(point + 1));
+        return true;
+    }
+}
@@ -0,0 +1,797 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import edu.cornell.gdiac.util.IntBinaryHeap;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Hierarchical pathfinding (HPA*) over a {@link Grid}
+ *
+ * The grid is divided into square clusters. Wherever two neighbouring clusters
+ * share a run of open cells along their border (an entrance), we place one or
+ * two transitions, each a pair of abstract nodes facing each other across the
+ * border. Inside every cluster, we precompute the path cost between each pair
+ * of its abstract nodes. A query then searches this small abstract graph
+ * instead of the full grid, and only refines the pieces of the path that the
+ * caller actually needs back down to cells.
+ *
+ * Movement is 4-way with unit step costs, matching the default grid search.
+ * Abstract paths are near-optimal (they must pass through transitions), which
+ * is the usual HPA* trade for search cost that scales with room count rather
+ * than map area. When walls change, {@link #updateRegion} rebuilds only the
+ * clusters that overlap the change and the borders they share. The hierarchy
+ * listens to its grid, so this happens as soon as a footprint is stamped.
+ */
+public class HierarchicalPathfinder implements Grid.ChangeListener {
+    /** Entrances at least this long get a transition at each end instead of the middle */
+    private static final int MAX_SINGLE_ENTRANCE = 6;
+    /**
+     * The version of the code that builds the hierarchy; change this when the
+     * clusters, transitions or edges it builds change, so that
+     * {@link NavCache} does not load hierarchies built the old way
+     */
+    static final int BUILD_VERSION = 1;
+    /** The x offsets of the four neighbours */
+    private static final int[] DX = {1, 0, -1, 0};
+    /** The y offsets of the four neighbours */
+    private static final int[] DY = {0, 1, 0, -1};
+    /** The parent marker for abstract nodes reached directly from the start */
+    private static final int FROM_START = -2;
+
+    /** The grid to search */
+    private Grid grid;
+    /** The grid width (in cells) */
+    private int width;
+    /** The grid height (in cells) */
+    private int height;
+    /** The side length of a cluster (in cells) */
+    private int clusterSize;
+    /** The number of clusters across the grid */
+    private int clustersWide;
+    /** The number of clusters up the grid */
+    private int clustersHigh;
+
+    // ABSTRACT GRAPH (node ids are recycled when clusters are rebuilt)
+    /** The number of node ids in use (including dead ones) */
+    private int nodeLimit;
+    /** The cell index of each abstract node */
+    private int[] nodeCell;
+    /** The cluster of each abstract node */
+    private int[] nodeCluster;
+    /** The node across the border from each abstract node */
+    private int[] nodePartner;
+    /** The intra-cluster neighbours of each node */
+    private IntArray[] edgeTo;
+    /** The intra-cluster edge costs of each node (parallel to edgeTo) */
+    private FloatArray[] edgeCost;
+    /** The dead node ids available for reuse (dead nodes are in no cluster, so searches never reach them) */
+    private IntArray freeNodes;
+    /** The abstract nodes in each cluster */
+    private IntArray[] clusterNodes;
+    /** The abstract nodes on each border (2*cluster for east, 2*cluster+1 for north) */
+    private IntArray[] borderNodes;
+
+    // CLUSTER SEARCH (a BFS confined to one cluster, in cluster-local indices)
+    /** The BFS distance of each local cell */
+    private int[] localDist;
+    /** The BFS parent of each local cell (local index, or -1 at the origin) */
+    private int[] localParent;
+    /** The search stamp at which each local cell was reached */
+    private int[] localSeen;
+    /** The stamp of the current cluster search */
+    private int localStamp;
+    /** The BFS queue (local indices) */
+    private int[] localQueue;
+    /** The left column of the cluster being searched */
+    private int windowX;
+    /** The bottom row of the cluster being searched */
+    private int windowY;
+    /** The width of the cluster being searched (edge clusters may be narrow) */
+    private int windowWidth;
+    /** The height of the cluster being searched (edge clusters may be short) */
+    private int windowHeight;
+
+    // ABSTRACT SEARCH (the last slot is the virtual goal node)
+    /** The best known cost to each node */
+    private float[] nodeG;
+    /** The predecessor of each node on its best path */
+    private int[] nodeParent;
+    /** The search stamp at which each node was last reached */
+    private int[] nodeSeen;
+    /** The search stamp at which each node was last expanded */
+    private int[] nodeClosed;
+    /** The cost from each node in the goal cluster to the goal */
+    private float[] goalLink;
+    /** The search stamp at which each goal link was set */
+    private int[] goalLinkSeen;
+    /** The stamp of the current abstract search */
+    private int nodeStamp;
+    /** The frontier of the abstract search */
+    private IntBinaryHeap nodeOpen;
+    /** The number of abstract nodes expanded by the last query */
+    private int expanded;
+
+    /** Scratch list of abstract waypoints (as cells) */
+    private IntArray waypoints;
+
+    /**
+     * Builds the cluster hierarchy for the given grid
+     *
+     * @param grid        The grid to search
+     * @param clusterSize The side length of a cluster (in cells)
+     */
+    public HierarchicalPathfinder(Grid grid, int clusterSize) {
+        allocate(grid, clusterSize);
+        int clusters = clustersWide * clustersHigh;
+        ensureNodeCapacity(4 * clusters);
+        for (int ii = 0; ii < clusters; ii++) {
+            buildBorder(2 * ii);
+            buildBorder(2 * ii + 1);
+        }
+        for (int ii = 0; ii < clusters; ii++) {
+            linkCluster(ii);
+        }
+        grid.addChangeListener(this);
+    }
+
+    /**
+     * Creates the cluster hierarchy saved by {@link #write}
+     *
+     * The abstract graph is read as it is, so no cluster is searched.
+     *
+     * @param grid The grid the data was saved for
+     * @param data The saved graph, positioned at its start
+     * @throws IOException if the data does not fit the grid
+     */
+    HierarchicalPathfinder(Grid grid, ByteBuffer data) throws IOException {
+        allocate(grid, data.getInt());
+        int clusters = clustersWide * clustersHigh;
+        if (data.getInt() != clusters) {
+            throw new IOException("Saved hierarchy does not match the grid");
+        }
+        nodeLimit = data.getInt();
+        ensureNodeCapacity(Math.max(nodeLimit, 4 * clusters));
+        for (int node = 0; node < nodeLimit; node++) {
+            nodeCell[node] = data.getInt();
+            nodeCluster[node] = data.getInt();
+            nodePartner[node] = data.getInt();
+            for (int edges = data.getInt(); edges > 0; edges--) {
+                edgeTo[node].add(data.getInt());
+                edgeCost[node].add(data.getFloat());
+            }
+        }
+        readInts(data, freeNodes);
+        for (int ii = 0; ii < clusters; ii++) {
+            readInts(data, clusterNodes[ii]);
+        }
+        for (int ii = 0; ii < 2 * clusters; ii++) {
+            readInts(data, borderNodes[ii]);
+        }
+        grid.addChangeListener(this);
+    }
+
+    /**
+     * Allocates an empty hierarchy for the grid
+     */
+    private void allocate(Grid grid, int clusterSize) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        this.height = grid.getHeight();
+        this.clusterSize = clusterSize;
+        this.clustersWide = (width + clusterSize - 1) / clusterSize;
+        this.clustersHigh = (height + clusterSize - 1) / clusterSize;
+
+        int clusters = clustersWide * clustersHigh;
+        clusterNodes = new IntArray[clusters];
+        borderNodes = new IntArray[2 * clusters];
+        for (int ii = 0; ii < clusters; ii++) {
+            clusterNodes[ii] = new IntArray();
+            borderNodes[2 * ii] = new IntArray();
+            borderNodes[2 * ii + 1] = new IntArray();
+        }
+        freeNodes = new IntArray();
+        waypoints = new IntArray();
+
+        int local = clusterSize * clusterSize;
+        localDist = new int[local];
+        localParent = new int[local];
+        localSeen = new int[local];
+        localQueue = new int[local];
+    }
+
+    /**
+     * Saves the abstract graph of this hierarchy
+     *
+     * The data can be read back with the package constructor, for the same
+     * grid walls.
+     *
+     * @param out The stream to write to
+     * @throws IOException if the stream fails
+     */
+    void write(DataOutputStream out) throws IOException {
+        int clusters = clustersWide * clustersHigh;
+        out.writeInt(clusterSize);
+        out.writeInt(clusters);
+        out.writeInt(nodeLimit);
+        for (int node = 0; node < nodeLimit; node++) {
+            out.writeInt(nodeCell[node]);
+            out.writeInt(nodeCluster[node]);
+            out.writeInt(nodePartner[node]);
+            out.writeInt(edgeTo[node].size);
+            for (int ii = 0; ii < edgeTo[node].size; ii++) {
+                out.writeInt(edgeTo[node].get(ii));
+                out.writeFloat(edgeCost[node].get(ii));
+            }
+        }
+        writeInts(out, freeNodes);
+        for (int ii = 0; ii < clusters; ii++) {
+            writeInts(out, clusterNodes[ii]);
+        }
+        for (int ii = 0; ii < 2 * clusters; ii++) {
+            writeInts(out, borderNodes[ii]);
+        }
+    }
+
+    /**
+     * Writes a list of ints, preceded by its length
+     */
+    private static void writeInts(DataOutputStream out, IntArray values) throws IOException {
+        out.writeInt(values.size);
+        for (int ii = 0; ii < values.size; ii++) {
+            out.writeInt(values.get(ii));
+        }
+    }
+
+    /**
+     * Reads a list of ints written by {@link #writeInts} onto the end of values
+     */
+    private static void readInts(ByteBuffer data, IntArray values) {
+        for (int count = data.getInt(); count > 0; count--) {
+            values.add(data.getInt());
+        }
+    }
+
+    /**
+     * Returns the grid this pathfinder searches
+     *
+     * @return the grid this pathfinder searches
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Returns the side length of a cluster (in cells)
+     *
+     * @return the side length of a cluster (in cells)
+     */
+    public int getClusterSize() {
+        return clusterSize;
+    }
+
+    /**
+     * Returns the number of abstract nodes in the graph
+     *
+     * @return the number of abstract nodes in the graph
+     */
+    public int getNodeCount() {
+        return nodeLimit - freeNodes.size;
+    }
+
+    /**
+     * Returns the number of abstract nodes expanded by the last query
+     *
+     * @return the number of abstract nodes expanded by the last query
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * Rebuilds the hierarchy after walls changed in the given cell rectangle
+     *
+     * Only the clusters overlapping the rectangle have their borders rebuilt.
+     * Their immediate neighbours share those borders, so they have their
+     * internal edges recomputed as well. Everything else is untouched.
+     *
+     * @param minX The left column of the changed cells
+     * @param minY The bottom row of the changed cells
+     * @param maxX The right column of the changed cells (inclusive)
+     * @param maxY The top row of the changed cells (inclusive)
+     */
+    public void updateRegion(int minX, int minY, int maxX, int maxY) {
+        int cx0 = Math.max(0, Math.min(minX, maxX) / clusterSize);
+        int cy0 = Math.max(0, Math.min(minY, maxY) / clusterSize);
+        int cx1 = Math.min(clustersWide - 1, Math.max(minX, maxX) / clusterSize);
+        int cy1 = Math.min(clustersHigh - 1, Math.max(minY, maxY) / clusterSize);
+        if (cx0 > cx1 || cy0 > cy1) {
+            return;
+        }
+
+        // The borders of a cluster are its own east/north ones and its neighbours' facing ones
+        for (int cy = cy0; cy <= cy1; cy++) {
+            for (int cx = cx0 - 1; cx <= cx1; cx++) {
+                if (cx >= 0) {
+                    rebuildBorder(2 * (cy * clustersWide + cx));
+                }
+            }
+        }
+        for (int cy = cy0 - 1; cy <= cy1; cy++) {
+            for (int cx = cx0; cx <= cx1; cx++) {
+                if (cy >= 0) {
+                    rebuildBorder(2 * (cy * clustersWide + cx) + 1);
+                }
+            }
+        }
+
+        int lx = Math.max(0, cx0 - 1);
+        int ly = Math.max(0, cy0 - 1);
+        int hx = Math.min(clustersWide - 1, cx1 + 1);
+        int hy = Math.min(clustersHigh - 1, cy1 + 1);
+        for (int cy = ly; cy <= hy; cy++) {
+            for (int cx = lx; cx <= hx; cx++) {
+                linkCluster(cy * clustersWide + cx);
+            }
+        }
+    }
+
+    @Override
+    public void cellsChanged(Grid grid, int minX, int minY, int maxX, int maxY) {
+        updateRegion(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Finds the abstract waypoints of a path between two grid cells
+     *
+     * The waypoints are cell indices: the start, each transition crossed, and
+     * the goal. Consecutive waypoints are either adjacent or in the same
+     * cluster. On failure, out is left empty.
+     *
+     * @param startX The x grid coordinate of the start
+     * @param startY The y grid coordinate of the start
+     * @param goalX  The x grid coordinate of the goal
+     * @param goalY  The y grid coordinate of the goal
+     * @param out    The array to store the waypoints
+     * @return True if the goal is reachable
+     */
+    public boolean findWaypoints(int startX, int startY, int goalX, int goalY, IntArray out) {
+        out.clear();
+        expanded = 0;
+        if (!grid.canReach(startX, startY, goalX, goalY)) {
+            return false;
+        }
+        beginNodeSearch();
+        int goalNode = nodeLimit;
+        int start = grid.index(startX, startY);
+        int goal = grid.index(goalX, goalY);
+        int startCluster = clusterOf(startX, startY);
+        int goalCluster = clusterOf(goalX, goalY);
+
+        // Connect the goal to the transitions of its cluster
+        searchCluster(goalCluster, goal, -1);
+        IntArray nodes = clusterNodes[goalCluster];
+        for (int ii = 0; ii < nodes.size; ii++) {
+            int node = nodes.get(ii);
+            int dist = localDistance(nodeCell[node]);
+            if (dist >= 0) {
+                goalLink[node] = dist;
+                goalLinkSeen[node] = nodeStamp;
+            }
+        }
+
+        // Seed the search with the transitions reachable from the start
+        searchCluster(startCluster, start, -1);
+        if (startCluster == goalCluster) {
+            int dist = localDistance(goal);
+            if (dist >= 0) {
+                reachNode(goalNode, dist, FROM_START, goal, goal);
+            }
+        }
+        nodes = clusterNodes[startCluster];
+        for (int ii = 0; ii < nodes.size; ii++) {
+            int node = nodes.get(ii);
+            int dist = localDistance(nodeCell[node]);
+            if (dist >= 0) {
+                reachNode(node, dist, FROM_START, nodeCell[node], goal);
+            }
+        }
+
+        while (!nodeOpen.isEmpty()) {
+            int node = nodeOpen.pop();
+            if (node == goalNode) {
+                collectWaypoints(start, goal, out);
+                return true;
+            }
+            nodeClosed[node] = nodeStamp;
+            expanded++;
+
+            relaxNode(node, nodePartner[node], 1, goal);
+            IntArray to = edgeTo[node];
+            FloatArray cost = edgeCost[node];
+            for (int ii = 0; ii < to.size; ii++) {
+                relaxNode(node, to.get(ii), cost.get(ii), goal);
+            }
+            if (goalLinkSeen[node] == nodeStamp) {
+                relaxNode(node, goalNode, goalLink[node], goal);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds a full cell path between two grid cells
+     *
+     * Every abstract segment is refined, so out holds cell indices from the
+     * start to the goal (inclusive). On failure, out is left empty.
+     *
+     * @param startX The x grid coordinate of the start
+     * @param startY The y grid coordinate of the start
+     * @param goalX  The x grid coordinate of the goal
+     * @param goalY  The y grid coordinate of the goal
+     * @param out    The array to store the path
+     * @return True if the goal is reachable
+     */
+    public boolean findPath(int startX, int startY, int goalX, int goalY, IntArray out) {
+        if (!findWaypoints(startX, startY, goalX, goalY, waypoints)) {
+            out.clear();
+            return false;
+        }
+        out.clear();
+        out.add(waypoints.get(0));
+        for (int ii = 1; ii < waypoints.size; ii++) {
+            refine(waypoints.get(ii - 1), waypoints.get(ii), out);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the first step of a path between two grid cells
+     *
+     * Only the first abstract segment is refined to cells. If the start is the
+     * goal, this is the index of the start. If the goal is unreachable, it is -1.
+     *
+     * @param startX The x grid coordinate of the start
+     * @param startY The y grid coordinate of the start
+     * @param goalX  The x grid coordinate of the goal
+     * @param goalY  The y grid coordinate of the goal
+     * @return The cell index of the first step, or -1 if unreachable
+     */
+    public int findNextStep(int startX, int startY, int goalX, int goalY) {
+        if (!findWaypoints(startX, startY, goalX, goalY, waypoints)) {
+            return -1;
+        }
+        int start = waypoints.get(0);
+        if (waypoints.size == 1) {
+            return start;
+        }
+        int next = waypoints.get(1);
+        if (isAdjacent(start, next)) {
+            return next;
+        }
+        // Walk the cluster search back from the waypoint to the start
+        searchCluster(clusterOf(start % width, start / width), start, next);
+        int local = toLocal(next);
+        while (localParent[local] >= 0 && localParent[localParent[local]] >= 0) {
+            local = localParent[local];
+        }
+        return toCell(local);
+    }
+
+    /**
+     * Appends the cells after from up to and including to
+     *
+     * The two cells are adjacent (a transition crossing) or share a cluster.
+     */
+    private void refine(int from, int to, IntArray out) {
+        if (from == to) {
+            return;
+        }
+        if (isAdjacent(from, to)) {
+            out.add(to);
+            return;
+        }
+        searchCluster(clusterOf(from % width, from / width), from, to);
+        int mark = out.size;
+        for (int local = toLocal(to); localParent[local] >= 0; local = localParent[local]) {
+            out.add(toCell(local));
+        }
+        // The cells were appended goal first
+        for (int ii = mark, jj = out.size - 1; ii < jj; ii++, jj--) {
+            out.swap(ii, jj);
+        }
+    }
+
+    /**
+     * Writes the waypoint cells of the solved abstract search into out
+     */
+    private void collectWaypoints(int start, int goal, IntArray out) {
+        out.add(goal);
+        for (int node = nodeParent[nodeLimit]; node != FROM_START; node = nodeParent[node]) {
+            if (nodeCell[node] != out.peek()) {
+                out.add(nodeCell[node]);
+            }
+        }
+        if (start != out.peek()) {
+            out.add(start);
+        }
+        out.reverse();
+    }
+
+    /**
+     * Offers a path through node to the abstract node next, costing step more
+     */
+    private void relaxNode(int node, int next, float step, int goal) {
+        if (next < 0 || nodeClosed[next] == nodeStamp) {
+            return;
+        }
+        float g = nodeG[node] + step;
+        if (nodeSeen[next] != nodeStamp || g < nodeG[next]) {
+            int cell = next == nodeLimit ? goal : nodeCell[next];
+            reachNode(next, g, node, cell, goal);
+        }
+    }
+
+    /**
+     * Records a (better) path to an abstract node and pushes it on the frontier
+     */
+    private void reachNode(int node, float g, int from, int cell, int goal) {
+        float h = Math.abs(cell % width - goal % width) + Math.abs(cell / width - goal / width);
+        nodeG[node] = g;
+        nodeParent[node] = from;
+        nodeSeen[node] = nodeStamp;
+        nodeOpen.add(node, g + h, h);
+    }
+
+    /**
+     * Starts a new abstract search, invalidating all per-node state in O(1)
+     */
+    private void beginNodeSearch() {
+        nodeOpen.clear();
+        nodeStamp++;
+        if (nodeStamp == Integer.MAX_VALUE) {
+            Arrays.fill(nodeSeen, 0);
+            Arrays.fill(nodeClosed, 0);
+            Arrays.fill(goalLinkSeen, 0);
+            nodeStamp = 1;
+        }
+    }
+
+    /**
+     * Removes and recreates the transitions on one border
+     */
+    private void rebuildBorder(int border) {
+        IntArray nodes = borderNodes[border];
+        for (int ii = 0; ii < nodes.size; ii++) {
+            int node = nodes.get(ii);
+            clusterNodes[nodeCluster[node]].removeValue(node);
+            edgeTo[node].clear();
+            edgeCost[node].clear();
+            freeNodes.add(node);
+        }
+        nodes.clear();
+        buildBorder(border);
+    }
+
+    /**
+     * Scans one border for entrances and places their transitions
+     *
+     * Border 2*c is the east side of cluster c, and 2*c+1 is its north side.
+     */
+    private void buildBorder(int border) {
+        int cluster = border / 2;
+        boolean north = (border % 2) == 1;
+        int cx = cluster % clustersWide;
+        int cy = cluster / clustersWide;
+        if (north ? cy + 1 >= clustersHigh : cx + 1 >= clustersWide) {
+            return;
+        }
+
+        // Walk along the border; (x,y) is on this side and (x+ox,y+oy) on the other
+        int ox = north ? 0 : 1;
+        int oy = north ? 1 : 0;
+        int x = north ? cx * clusterSize : (cx + 1) * clusterSize - 1;
+        int y = north ? (cy + 1) * clusterSize - 1 : cy * clusterSize;
+        int length = north ? Math.min(clusterSize, width - x) : Math.min(clusterSize, height - y);
+        int other = cluster + (north ? clustersWide : 1);
+
+        int run = 0;
+        for (int ii = 0; ii <= length; ii++) {
+            int ax = x + oy * ii;
+            int ay = y + ox * ii;
+            boolean open = ii < length && isOpen(ax, ay) && isOpen(ax + ox, ay + oy);
+            if (open) {
+                run++;
+                continue;
+            }
+            if (run > 0) {
+                int first = ii - run;
+                int last = ii - 1;
+                if (run < MAX_SINGLE_ENTRANCE) {
+                    int mid = (first + last) / 2;
+                    addTransition(border, cluster, other, x + oy * mid, y + ox * mid, ox, oy);
+                } else {
+                    addTransition(border, cluster, other, x + oy * first, y + ox * first, ox, oy);
+                    addTransition(border, cluster, other, x + oy * last, y + ox * last, ox, oy);
+                }
+            }
+            run = 0;
+        }
+    }
+
+    /**
+     * Adds a pair of abstract nodes facing each other across a border
+     */
+    private void addTransition(int border, int cluster, int other, int x, int y, int ox, int oy) {
+        int a = allocateNode(grid.index(x, y), cluster);
+        int b = allocateNode(grid.index(x + ox, y + oy), other);
+        nodePartner[a] = b;
+        nodePartner[b] = a;
+        borderNodes[border].add(a);
+        borderNodes[border].add(b);
+    }
+
+    /**
+     * Returns a fresh abstract node id for the given cell and cluster
+     */
+    private int allocateNode(int cell, int cluster) {
+        int node;
+        if (freeNodes.size > 0) {
+            node = freeNodes.pop();
+        } else {
+            ensureNodeCapacity(nodeLimit + 1);
+            node = nodeLimit++;
+        }
+        nodeCell[node] = cell;
+        nodeCluster[node] = cluster;
+        nodePartner[node] = -1;
+        clusterNodes[cluster].add(node);
+        return node;
+    }
+
+    /**
+     * Recomputes the intra-cluster edges between all nodes of a cluster
+     */
+    private void linkCluster(int cluster) {
+        IntArray nodes = clusterNodes[cluster];
+        for (int ii = 0; ii < nodes.size; ii++) {
+            int node = nodes.get(ii);
+            edgeTo[node].clear();
+            edgeCost[node].clear();
+            searchCluster(cluster, nodeCell[node], -1);
+            for (int jj = 0; jj < nodes.size; jj++) {
+                int dist = localDistance(nodeCell[nodes.get(jj)]);
+                if (jj != ii && dist >= 0) {
+                    edgeTo[node].add(nodes.get(jj));
+                    edgeCost[node].add(dist);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs a BFS confined to one cluster from the origin cell
+     *
+     * The search stops early once the target cell is reached (use -1 to flood
+     * the whole cluster). The origin may be a wall cell.
+     */
+    private void searchCluster(int cluster, int origin, int target) {
+        windowX = (cluster % clustersWide) * clusterSize;
+        windowY = (cluster / clustersWide) * clusterSize;
+        windowWidth = Math.min(clusterSize, width - windowX);
+        windowHeight = Math.min(clusterSize, height - windowY);
+        localStamp++;
+        if (localStamp == Integer.MAX_VALUE) {
+            Arrays.fill(localSeen, 0);
+            localStamp = 1;
+        }
+
+        int first = toLocal(origin);
+        localDist[first] = 0;
+        localParent[first] = -1;
+        localSeen[first] = localStamp;
+        int head = 0;
+        int tail = 0;
+        localQueue[tail++] = first;
+        while (head < tail) {
+            int local = localQueue[head++];
+            if (target >= 0 && toCell(local) == target) {
+                return;
+            }
+            int x = local % clusterSize;
+            int y = local / clusterSize;
+            for (int d = 0; d < 4; d++) {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (nx < 0 || ny < 0 || nx >= windowWidth || ny >= windowHeight) {
+                    continue;
+                }
+                int next = ny * clusterSize + nx;
+                if (localSeen[next] != localStamp && !grid.isWall(windowX + nx, windowY + ny)) {
+                    localDist[next] = localDist[local] + 1;
+                    localParent[next] = local;
+                    localSeen[next] = localStamp;
+                    localQueue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the distance of a cell in the last cluster search, or -1
+     */
+    private int localDistance(int cell) {
+        int local = toLocal(cell);
+        return localSeen[local] == localStamp ? localDist[local] : -1;
+    }
+
+    /**
+     * Converts a grid cell index to an index local to the searched cluster
+     */
+    private int toLocal(int cell) {
+        return (cell / width - windowY) * clusterSize + (cell % width - windowX);
+    }
+
+    /**
+     * Converts an index local to the searched cluster to a grid cell index
+     */
+    private int toCell(int local) {
+        return grid.index(windowX + local % clusterSize, windowY + local / clusterSize);
+    }
+
+    /**
+     * Returns the cluster containing the given cell
+     */
+    private int clusterOf(int x, int y) {
+        return (y / clusterSize) * clustersWide + (x / clusterSize);
+    }
+
+    /**
+     * Returns true if two cells are orthogonal neighbours
+     */
+    private boolean isAdjacent(int a, int b) {
+        return Math.abs(a % width - b % width) + Math.abs(a / width - b / width) == 1;
+    }
+
+    /**
+     * Returns true if the cell is in bounds and not a wall
+     */
+    private boolean isOpen(int x, int y) {
+        return grid.inBounds(x, y) && !grid.isWall(x, y);
+    }
+
+    /**
+     * Grows the per-node arrays so that ids up to capacity-1 are valid
+     *
+     * The abstract search arrays keep one extra slot for the virtual goal.
+     */
+    private void ensureNodeCapacity(int capacity) {
+        int current = nodeCell == null ? 0 : nodeCell.length;
+        if (capacity <= current) {
+            return;
+        }
+        int size = Math.max(capacity, 2 * current);
+        nodeCell = nodeCell == null ? new int[size] : Arrays.copyOf(nodeCell, size);
+        nodeCluster = nodeCluster == null ? new int[size] : Arrays.copyOf(nodeCluster, size);
+        nodePartner = nodePartner == null ? new int[size] : Arrays.copyOf(nodePartner, size);
+        edgeTo = edgeTo == null ? new IntArray[size] : Arrays.copyOf(edgeTo, size);
+        edgeCost = edgeCost == null ? new FloatArray[size] : Arrays.copyOf(edgeCost, size);
+        for (int ii = current; ii < size; ii++) {
+            edgeTo[ii] = new IntArray();
+            edgeCost[ii] = new FloatArray();
+        }
+
+        nodeG = new float[size + 1];
+        nodeParent = new int[size + 1];
+        nodeSeen = new int[size + 1];
+        nodeClosed = new int[size + 1];
+        goalLink = new float[size + 1];
+        goalLinkSeen = new int[size + 1];
+        nodeStamp = 0;
+        nodeOpen = new IntBinaryHeap(size + 1);
+    }
+}
@@ -0,0 +1,470 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.utils.IntArray;
+import edu.cornell.gdiac.util.IntBinaryHeap;
+
+import java.util.Arrays;
+
+/**
+ * An incremental path planner for an agent chasing a moving target
+ *
+ * This is Moving Target D* Lite over the walls of a {@link Grid}: an LPA*
+ * search rooted at the agent that is kept between queries and repaired
+ * instead of being thrown away. When the target moves, the keys are offset by
+ * the heuristic distance it moved (the D* Lite "km" trick), so nothing needs
+ * to be re-queued. When the agent moves along its path, the part of the search
+ * tree below its new cell is kept as is and only the rest is discarded. When
+ * cells change (the planner listens to its grid), only the affected cells are
+ * re-queued. The cost of a query is
+ * therefore proportional to what changed since the last one, not to the size
+ * of the map.
+ *
+ * Movement is 4-way with unit step costs. All per-cell state is allocated once
+ * per grid and invalidated with stamps.
+ */
+public class IncrementalPlanner implements Grid.ChangeListener {
+    /** The value of an unreached cell */
+    private static final float INF = Float.POSITIVE_INFINITY;
+    /** The x offsets of the four neighbours */
+    private static final int[] DX = {1, 0, -1, 0};
+    /** The y offsets of the four neighbours */
+    private static final int[] DY = {0, 1, 0, -1};
+
+    /** Subtree membership is not yet known */
+    private static final byte UNKNOWN = 0;
+    /** The cell is in the subtree below the new start */
+    private static final byte INSIDE = 1;
+    /** The cell is not in the subtree below the new start */
+    private static final byte OUTSIDE = 2;
+    /** The cell is on the chain currently being walked */
+    private static final byte WALKING = 3;
+
+    /** The grid to search */
+    private Grid grid;
+    /** The grid width (in cells) */
+    private int width;
+    /** The settled path cost of each cell from the root */
+    private float[] g;
+    /** The one-step lookahead cost of each cell from the root */
+    private float[] rhs;
+    /** The predecessor giving each cell its lookahead cost, or -1 */
+    private int[] parent;
+    /** The stamp at which each cell was last initialized */
+    private int[] seen;
+    /** The stamp of the current search tree */
+    private int stamp;
+    /** Every cell initialized under the current stamp */
+    private IntArray touched;
+    /** The inconsistent cells, keyed by (min(g,rhs)+h+km, min(g,rhs)) */
+    private IntBinaryHeap open;
+
+    /** Subtree membership of each cell when the start moves */
+    private byte[] membership;
+    /** The stamp at which each membership value was computed */
+    private int[] membershipSeen;
+    /** The stamp of the current membership pass */
+    private int membershipStamp;
+    /** The cells discarded when the start moved */
+    private IntArray discarded;
+
+    /** The root cell of the search (the agent), or -1 if there is no tree */
+    private int start;
+    /** The target cell of the search */
+    private int goal;
+    /** The accumulated heuristic offset from target moves */
+    private float km;
+    /** The number of cells expanded by the last query */
+    private int expanded;
+
+    /**
+     * Creates a planner for the given grid
+     *
+     * @param grid The grid to search
+     */
+    public IncrementalPlanner(Grid grid) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        int size = width * grid.getHeight();
+        g = new float[size];
+        rhs = new float[size];
+        parent = new int[size];
+        seen = new int[size];
+        membership = new byte[size];
+        membershipSeen = new int[size];
+        open = new IntBinaryHeap(size);
+        touched = new IntArray();
+        discarded = new IntArray();
+        start = -1;
+        goal = -1;
+        stamp = 0;
+        grid.addChangeListener(this);
+    }
+
+    /**
+     * Returns the grid this planner searches
+     *
+     * @return the grid this planner searches
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Returns the number of cells expanded by the last query
+     *
+     * @return the number of cells expanded by the last query
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * Discards the search tree, so that the next query starts from scratch
+     */
+    public void reset() {
+        start = -1;
+    }
+
+    /**
+     * Returns the first step of a shortest path between two grid cells
+     *
+     * This is the index of the cell after the start on the path. If the start
+     * is the goal, it is the index of the start. If the goal is unreachable,
+     * it is -1.
+     *
+     * @param startX The x grid coordinate of the agent
+     * @param startY The y grid coordinate of the agent
+     * @param goalX  The x grid coordinate of the target
+     * @param goalY  The y grid coordinate of the target
+     * @return The cell index of the first step, or -1 if unreachable
+     */
+    public int findNextStep(int startX, int startY, int goalX, int goalY) {
+        if (!plan(startX, startY, goalX, goalY)) {
+            return -1;
+        }
+        // A path visits each cell at most once, so a longer walk means the tree is broken
+        int node = goal;
+        for (int steps = parent.length; node != start && parent[node] != start; steps--) {
+            if (steps == 0 || parent[node] < 0) {
+                return -1;
+            }
+            node = parent[node];
+        }
+        return node;
+    }
+
+    /**
+     * Finds a shortest path between two grid cells
+     *
+     * On success, the path is stored in out as cell indices from the start to
+     * the goal (inclusive). On failure, out is left empty.
+     *
+     * @param startX The x grid coordinate of the agent
+     * @param startY The y grid coordinate of the agent
+     * @param goalX  The x grid coordinate of the target
+     * @param goalY  The y grid coordinate of the target
+     * @param out    The array to store the path
+     * @return True if the goal is reachable
+     */
+    public boolean findPath(int startX, int startY, int goalX, int goalY, IntArray out) {
+        out.clear();
+        if (!plan(startX, startY, goalX, goalY)) {
+            return false;
+        }
+        for (int node = goal; node != -1; node = parent[node]) {
+            if (out.size == parent.length) {
+                out.clear();
+                return false;
+            }
+            out.add(node);
+        }
+        out.reverse();
+        return true;
+    }
+
+    /**
+     * Repairs the search after walls changed in the given cell rectangle
+     *
+     * Every changed cell and its neighbours have their lookahead recomputed.
+     * The repair itself happens lazily on the next query.
+     *
+     * @param minX The left column of the changed cells
+     * @param minY The bottom row of the changed cells
+     * @param maxX The right column of the changed cells (inclusive)
+     * @param maxY The top row of the changed cells (inclusive)
+     */
+    public void notifyCellsChanged(int minX, int minY, int maxX, int maxY) {
+        if (start < 0) {
+            return;
+        }
+        int x0 = Math.max(0, Math.min(minX, maxX) - 1);
+        int y0 = Math.max(0, Math.min(minY, maxY) - 1);
+        int x1 = Math.min(width - 1, Math.max(minX, maxX) + 1);
+        int y1 = Math.min(grid.getHeight() - 1, Math.max(minY, maxY) + 1);
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                updateCell(grid.index(x, y));
+            }
+        }
+    }
+
+    @Override
+    public void cellsChanged(Grid grid, int minX, int minY, int maxX, int maxY) {
+        notifyCellsChanged(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Brings the search tree up to date for the given endpoints
+     *
+     * @return True if the goal is reachable
+     */
+    private boolean plan(int startX, int startY, int goalX, int goalY) {
+        expanded = 0;
+        if (!grid.canReach(startX, startY, goalX, goalY)) {
+            // Rejecting early also keeps the search tree intact for later queries
+            return false;
+        }
+        int s = grid.index(startX, startY);
+        int t = grid.index(goalX, goalY);
+        if (start < 0) {
+            initialize(s, t);
+        } else {
+            if (t != goal) {
+                km += heuristic(goal, t);
+                goal = t;
+            }
+            if (s != start) {
+                moveStart(s);
+            }
+        }
+        touch(goal);
+        computeShortestPath();
+        return g[goal] < INF;
+    }
+
+    /**
+     * Starts a fresh search tree rooted at the given start
+     */
+    private void initialize(int s, int t) {
+        open.clear();
+        touched.clear();
+        stamp++;
+        if (stamp == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            stamp = 1;
+        }
+        km = 0;
+        start = s;
+        goal = t;
+        touch(s);
+        rhs[s] = 0;
+        open.add(s, heuristic(s, goal) + km, 0);
+    }
+
+    /**
+     * Re-roots the search tree at a new start cell
+     *
+     * If the new start is settled in the current tree, the subtree below it
+     * keeps its costs (they are all off by the same constant, which does not
+     * change any path) and every other cell is discarded and re-queued from
+     * its surviving neighbours. Otherwise, the search starts over.
+     */
+    private void moveStart(int s) {
+        if (seen[s] != stamp || g[s] == INF || g[s] != rhs[s]) {
+            initialize(s, goal);
+            return;
+        }
+
+        membershipStamp++;
+        if (membershipStamp == Integer.MAX_VALUE) {
+            Arrays.fill(membershipSeen, 0);
+            membershipStamp = 1;
+        }
+        setMembership(s, INSIDE);
+
+        discarded.clear();
+        for (int ii = 0; ii < touched.size; ii++) {
+            int cell = touched.get(ii);
+            if (!isInSubtree(cell) && (g[cell] != INF || rhs[cell] != INF)) {
+                g[cell] = INF;
+                rhs[cell] = INF;
+                parent[cell] = -1;
+                open.remove(cell);
+                discarded.add(cell);
+            }
+        }
+
+        start = s;
+        parent[s] = -1;
+        for (int ii = 0; ii < discarded.size; ii++) {
+            updateCell(discarded.get(ii));
+        }
+    }
+
+    /**
+     * Returns true if the cell's parent chain leads to the start cell
+     *
+     * Results are memoized for the current membership pass, so classifying
+     * every touched cell is linear overall.
+     */
+    private boolean isInSubtree(int cell) {
+        int node = cell;
+        while (getMembership(node) == UNKNOWN) {
+            setMembership(node, WALKING);
+            node = parent[node];
+            if (node < 0) {
+                break;
+            }
+        }
+        byte result = (node >= 0 && getMembership(node) == INSIDE) ? INSIDE : OUTSIDE;
+        for (node = cell; node >= 0 && getMembership(node) == WALKING; node = parent[node]) {
+            setMembership(node, result);
+        }
+        return result == INSIDE;
+    }
+
+    /**
+     * Returns the membership of a cell in the current pass
+     */
+    private byte getMembership(int cell) {
+        return membershipSeen[cell] == membershipStamp ? membership[cell] : UNKNOWN;
+    }
+
+    /**
+     * Sets the membership of a cell in the current pass
+     */
+    private void setMembership(int cell, byte value) {
+        membership[cell] = value;
+        membershipSeen[cell] = membershipStamp;
+    }
+
+    /**
+     * Expands inconsistent cells until the goal is settled
+     */
+    private void computeShortestPath() {
+        while (!open.isEmpty()) {
+            float goalKey = Math.min(g[goal], rhs[goal]);
+            if (!isBefore(open.peekKey(), open.peekTie(), goalKey + km, goalKey) && rhs[goal] == g[goal]) {
+                return;
+            }
+
+            int node = open.peek();
+            float base = Math.min(g[node], rhs[node]);
+            float key = base + heuristic(node, goal) + km;
+            if (isBefore(open.peekKey(), open.peekTie(), key, base)) {
+                open.add(node, key, base);
+                continue;
+            }
+            open.pop();
+            expanded++;
+
+            int x = node % width;
+            int y = node / width;
+            if (g[node] > rhs[node]) {
+                g[node] = rhs[node];
+                float step = g[node] + 1;
+                for (int d = 0; d < 4; d++) {
+                    int nx = x + DX[d];
+                    int ny = y + DY[d];
+                    if (!isOpen(nx, ny)) {
+                        continue;
+                    }
+                    int next = grid.index(nx, ny);
+                    touch(next);
+                    if (next != start && step < rhs[next]) {
+                        rhs[next] = step;
+                        parent[next] = node;
+                        queue(next);
+                    }
+                }
+            } else {
+                g[node] = INF;
+                updateCell(node);
+                for (int d = 0; d < 4; d++) {
+                    int nx = x + DX[d];
+                    int ny = y + DY[d];
+                    if (grid.inBounds(nx, ny)) {
+                        int next = grid.index(nx, ny);
+                        if (seen[next] == stamp && parent[next] == node) {
+                            updateCell(next);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Recomputes the lookahead of a cell from its neighbours and re-queues it
+     */
+    private void updateCell(int cell) {
+        touch(cell);
+        if (cell != start) {
+            rhs[cell] = INF;
+            parent[cell] = -1;
+            int x = cell % width;
+            int y = cell / width;
+            if (!grid.isWall(x, y)) {
+                for (int d = 0; d < 4; d++) {
+                    int nx = x + DX[d];
+                    int ny = y + DY[d];
+                    if (!grid.inBounds(nx, ny)) {
+                        continue;
+                    }
+                    int prev = grid.index(nx, ny);
+                    if (seen[prev] == stamp && g[prev] + 1 < rhs[cell]) {
+                        rhs[cell] = g[prev] + 1;
+                        parent[cell] = prev;
+                    }
+                }
+            }
+        }
+        queue(cell);
+    }
+
+    /**
+     * Puts a cell on the frontier if it is inconsistent, or removes it if not
+     */
+    private void queue(int cell) {
+        if (g[cell] != rhs[cell]) {
+            float base = Math.min(g[cell], rhs[cell]);
+            open.add(cell, base + heuristic(cell, goal) + km, base);
+        } else {
+            open.remove(cell);
+        }
+    }
+
+    /**
+     * Initializes a cell for the current search tree if it is new
+     */
+    private void touch(int cell) {
+        if (seen[cell] != stamp) {
+            seen[cell] = stamp;
+            g[cell] = INF;
+            rhs[cell] = INF;
+            parent[cell] = -1;
+            touched.add(cell);
+        }
+    }
+
+    /**
+     * Returns the Manhattan distance between two cells
+     */
+    private float heuristic(int a, int b) {
+        return Math.abs(a % width - b % width) + Math.abs(a / width - b / width);
+    }
+
+    /**
+     * Returns true if the key (k1,k2) orders strictly before (j1,j2)
+     */
+    private static boolean isBefore(float k1, float k2, float j1, float j2) {
+        return k1 < j1 || (k1 == j1 && k2 < j2);
+    }
+
+    /**
+     * Returns true if the cell is in bounds and not a wall
+     */
+    private boolean isOpen(int x, int y) {
+        return grid.inBounds(x, y) && !grid.isWall(x, y);
+    }
+}
@@ -58,6 +58,12 @@ public class LevelModel {
 	public static final int WORLD_VELOC = 6;
 	/** Number of position iterations for the constrain solvers */
 	public static final int WORLD_POSIT = 2;
+	/** Side length (in grid cells) of a cluster in the pathfinding hierarchy */
+	public static final int NAV_CLUSTER_SIZE = 16;
+	/** Resolution of the navigation grid (cells per physics unit) */
+	public static final float NAV_CELLS_PER_UNIT = 2.0f;
+	/** Local directory for the saved navigation data of each level */
+	public static final String NAV_CACHE_DIR = "navcache";
 
 	// Physics objects for the game
 	/** Reference to the currently selected avatar*/
@@ -65,8 +71,21 @@ public class LevelModel {
 	/** Reference to the AFK avatar*/
 	private DudeModel avatarAFK;
 
-	/** Reference to the guard */
-	private Guard guard;
+	/** The guards of this level and their AI state */
+	private GuardSystem guards;
+
+	/** The navigation grid rasterized from the walls */
+	private Grid grid;
+	/** The cluster hierarchy over the grid, for long-distance path queries */
+	private HierarchicalPathfinder navHierarchy;
+	/** The navigation mesh built from the wall geometry, sized for the guard */
+	private NavMesh navMesh;
+	/** The wall segments, for exact visibility polygons */
+	private VisibilityPolygon visibilityPolygon;
+	/** The navigation grid with large cells in open space and fine ones along the walls */
+	private QuadGrid quadGrid;
+	/** The saved navigation data, so that an unchanged level is not rebuilt */
+	private NavCache navCache;
 
 	/** Reference to the goalDoor (for collision detection) */
 	private ExitModel goalDoor;
@@ -92,8 +111,8 @@ public class LevelModel {
 	/** All of the active lights that we loaded from the JSON file */
 	private Array<LightSource> lights = new Array<LightSource>();
 
-	/** The radius of the security camera light */
-	private float securityCamLightDistance = 1;
+	/** The radius in which the security camera sees the avatar (from the camera's JSON) */
+	private float securityCamLightDistance;
 
 	/** Reference to the security camera */
 	private SecurityCamera securityCamera;
@@ -101,8 +120,6 @@ public class LevelModel {
 	/** The current light source being used.  If -1, there are no shadows */
 	private int activeLight;
 
-	private LightSource guardLights;
-	private int activeGuardLight;
 	private LightSource securityCamLights;
 	private int activeSecurityCamLight;
 
@@ -191,16 +208,91 @@ public class LevelModel {
 	}
 
 
-	public Guard getGuard(){
-		return guard;
+	/**
+	 * Returns the guards of this level
+	 *
+	 * There can be any number of guards. Their AI state is stored with them.
+	 *
+	 * @return the guards of this level
+	 */
+	public GuardSystem getGuards() {
+		return guards;
+	}
+
+	/**
+	 * Returns the navigation grid for this level
+	 *
+	 * The grid is replaced every time the level is populated, but is only
+	 * rebuilt from the walls if the level changed since it was last saved.
+	 *
+	 * @return the navigation grid for this level
+	 */
+	public Grid getGrid() {
+		return grid;
 	}
 
-	public LightSource getGuardLights(){
-		return guardLights;
+	/**
+	 * Returns the cluster hierarchy over the navigation grid
+	 *
+	 * This is built alongside the grid and should be used for paths that
+	 * cross several rooms.
+	 *
+	 * @return the cluster hierarchy over the navigation grid
+	 */
+	public HierarchicalPathfinder getNavHierarchy() {
+		return navHierarchy;
+	}
+
+	/**
+	 * Returns the navigation mesh for this level
+	 *
+	 * The mesh is built from the wall geometry itself rather than the grid,
+	 * with the walls inflated by the largest guard radius. It is built on the first
+	 * call, as only some path settings use it.
+	 *
+	 * @return the navigation mesh for this level
+	 */
+	public NavMesh getNavMesh() {
+		if (navMesh == null) {
+			navMesh = new NavMesh(this, guards.getMaxRadius());
+		}
+		return navMesh;
+	}
+
+	/**
+	 * Returns the exact visibility engine for this level
+	 *
+	 * This is built from the wall geometry itself rather than the grid, so
+	 * its polygons follow the wall corners exactly. It is built on the first
+	 * call, as only exact guard vision uses it.
+	 *
+	 * @return the exact visibility engine for this level
+	 */
+	public VisibilityPolygon getVisibilityPolygon() {
+		if (visibilityPolygon == null) {
+			visibilityPolygon = new VisibilityPolygon(this);
+		}
+		return visibilityPolygon;
 	}
 
-	public LightSource getGuardLight(){
-		return guardLights;
+	/**
+	 * Returns the variable-resolution navigation grid for this level
+	 *
+	 * This has the same cells as the regular grid, but merges open (and
+	 * walled) squares into single cells, so its size follows the walls.
+	 * It is built on the first call, as only some path settings use it.
+	 *
+	 * It is built from the level's walls, not copied from the grid, so it
+	 * does not follow footprints stamped into the grid (see {@link Grid#stamp}).
+	 * Once footprints are stamped, its paths may cross them.
+	 *
+	 * @return the variable-resolution navigation grid for this level
+	 */
+	public QuadGrid getQuadGrid() {
+		if (quadGrid == null) {
+			quadGrid = new QuadGrid(this, NAV_CELLS_PER_UNIT);
+		}
+		return quadGrid;
 	}
 
 
@@ -389,21 +481,14 @@ public class LevelModel {
 		activate(avatarAFK);
 
 
-		// Create Guard
-		guard = new Guard("Guard");
-		JsonValue guardData = levelFormat.get("guard");
-		guard.initialize(directory, guardData);
-//		guard.setHeightScale(1.5f);
-//		guard.setWidthScale(1.5f);
-		guard.setHeightScale(1.2f);
-		guard.setWidthScale(1.2f);
-		guard.setDrawScale(scale);
-		activate(guard);
+		// Create the guards
+		createGuards(directory, levelFormat.get("guard"), levelFormat.get("guards"));
 
 		// Create Camera
 		securityCamera = new SecurityCamera("SecurityCamera");
 		JsonValue camdata = levelFormat.get("securityCamera");
 		securityCamera.initialize(directory, camdata);
+		securityCamLightDistance = camdata.getFloat("lightdistance", 1.0f);
 //		securityCamera.setHeightScale(0.5f);
 //		securityCamera.setWidthScale(0.5f);
 		securityCamera.setHeightScale(0.4f);
@@ -413,11 +498,72 @@ public class LevelModel {
 
 		createAndAttachGuardLights(levelFormat.get("securitylights"));
 
-		// Create the grid
-		Grid grid = new Grid(this, 2.0f);
+		// Create the grid, or read it back if this level was built before
+		if (navCache == null) {
+			navCache = new NavCache(Gdx.files.local(NAV_CACHE_DIR));
+		}
+		long navKey = NavCache.getKey(levelFormat, NAV_CELLS_PER_UNIT, NAV_CLUSTER_SIZE);
+		if (navCache.load(navKey, this, NAV_CELLS_PER_UNIT)) {
+			grid = navCache.getGrid();
+			navHierarchy = navCache.getHierarchy();
+		} else {
+			grid = new Grid(this, NAV_CELLS_PER_UNIT);
+			navHierarchy = new HierarchicalPathfinder(grid, NAV_CLUSTER_SIZE);
+			navCache.save(navKey, grid, navHierarchy);
+		}
+		navMesh = null;
+		visibilityPolygon = null;
+		// The map only tells walls apart, so it reaches a cell past the radius
+		// to cover every cell the avatar can stand in within that distance
+		securityCamera.setVisibility(new VisibilityMap(grid,
+				securityCamLightDistance + 1.5f / NAV_CELLS_PER_UNIT));
+		quadGrid = null;
 		grid.printGrid();
 	}
 	
+	/**
+	 * Creates every guard listed in the level, with its patrol route
+	 *
+	 * All guards share one set of body settings (the template); each entry of
+	 * the list only gives its start position and patrol route. A level with
+	 * no list gets a single guard at the template position, with no route.
+	 *
+	 * @param directory	the asset manager
+	 * @param template	the JSON body settings shared by all guards
+	 * @param list		the JSON list of guards (may be null)
+	 */
+	private void createGuards(AssetDirectory directory, JsonValue template, JsonValue list) {
+		guards = new GuardSystem(list == null ? 1 : Math.max(1, list.size));
+		JsonValue entry = list == null ? null : list.child();
+		do {
+			Guard guard = new Guard("Guard");
+			guard.initialize(directory, template);
+			float[] patrol = new float[0];
+			if (entry != null) {
+				float[] pos = entry.get("pos").asFloatArray();
+				guard.setPosition(pos[0], pos[1]);
+				JsonValue route = entry.get("patrol");
+				if (route != null) {
+					patrol = new float[2 * route.size];
+					int jj = 0;
+					for (JsonValue point = route.child(); point != null; point = point.next()) {
+						float[] xy = point.asFloatArray();
+						patrol[jj++] = xy[0];
+						patrol[jj++] = xy[1];
+					}
+				}
+			}
+//			guard.setHeightScale(1.5f);
+//			guard.setWidthScale(1.5f);
+			guard.setHeightScale(1.2f);
+			guard.setWidthScale(1.2f);
+			guard.setDrawScale(scale);
+			activate(guard);
+			guards.add(guard, patrol);
+			entry = entry == null ? null : entry.next();
+		} while (entry != null);
+	}
+
 	/**
 	 * Creates the ambient lighting for the level
 	 *
@@ -552,8 +698,12 @@ public class LevelModel {
 		float face  = light.getFloat("facing");
 		float angle = light.getFloat("angle");
 		int rays = light.getInt("rays");
+		// The vision cones show exactly the area in which the guards detect players
+		// (a cone light's angle is half of its total angle)
+		float coneDist  = Guard.FOV_DISTANCE;
+		float coneAngle = Guard.FOV_ANGLE / 2;
 
-		ConeSource guardCone = new ConeSource(rayhandler, rays, Color.WHITE, dist, pos[0], pos[1], face, angle);
+		ConeSource guardCone = new ConeSource(rayhandler, rays, Color.WHITE, coneDist, pos[0], pos[1], face, coneAngle);
 		guardCone.setColor(color[0],color[1],color[2],color[3]);
 		guardCone.setSoft(light.getBoolean("soft"));
 
@@ -577,9 +727,18 @@ public class LevelModel {
 		camPoint.setContactFilter(f2);
 		camPoint.setActive(false);
 
-		guardLights = guardCone;
-		guardLights.attachToBody(guard.getBody(), 0, 0, 90f);
-		guardLights.setActive(true);
+		guards.setLight(0, guardCone);
+		for (int ii = 1; ii < guards.size(); ii++) {
+			ConeSource cone = new ConeSource(rayhandler, rays, Color.WHITE, coneDist, pos[0], pos[1], face, coneAngle);
+			cone.setColor(color[0],color[1],color[2],color[3]);
+			cone.setSoft(light.getBoolean("soft"));
+			cone.setContactFilter(f);
+			guards.setLight(ii, cone);
+		}
+		for (int ii = 0; ii < guards.size(); ii++) {
+			guards.getLight(ii).attachToBody(guards.getGuard(ii).getBody(), 0, 0, 90f);
+			guards.getLight(ii).setActive(true);
+		}
 
 		securityCamLights = camPoint;
 		securityCamLights.attachToBody(securityCamera.getBody(), securityCamLights.getX(),
@@ -654,8 +813,12 @@ public class LevelModel {
 		}
 		lights.clear();
 
-		if(guardLights != null) {
-			guardLights.remove();
+		if (guards != null) {
+			for (int ii = 0; ii < guards.size(); ii++) {
+				if (guards.getLight(ii) != null) {
+					guards.getLight(ii).remove();
+				}
+			}
 		}
 
 		if(securityCamLights != null){
@@ -719,7 +882,9 @@ public class LevelModel {
 			}
 			avatar.update(dt);
 			avatarAFK.update(dt);
-			guard.update(dt);
+			for (int ii = 0; ii < guards.size(); ii++) {
+				guards.getGuard(ii).update(dt);
+			}
 			goalDoor.update(dt);
 			return true;
 		}
@@ -839,15 +1004,13 @@ public class LevelModel {
 	public boolean isAvatarInSecurityLight() {
 		if (securityCamera == null || avatar == null || isBlinded) return false;
 
-		// Get the positions of the security camera and the avatar.
-		Vector2 camPos = securityCamera.getPosition();
-		Vector2 avatarPos = avatar.getPosition();
-
-		// Compute the distance between them.
-		float distance = camPos.dst(avatarPos);
-
-		// If the distance is less than or equal to the light's radius, the avatar is illuminated.
-		return distance <= securityCamLightDistance;
+		// The camera sees the avatar within the light's radius, unless a wall is in the way
+		if (securityCamera.getPosition().dst(avatar.getPosition()) > securityCamLightDistance) {
+			return false;
+		}
+		VisibilityMap vision = securityCamera.getVisibility();
+		vision.update(securityCamera.getX(), securityCamera.getY());
+		return vision.isVisible(avatar.getX(), avatar.getY());
 	}
 
 
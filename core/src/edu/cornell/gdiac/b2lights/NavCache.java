@@ -0,0 +1,182 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.files.FileHandle;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.JsonValue;
+import com.badlogic.gdx.utils.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An on-disk cache of the navigation data built for a level
+ *
+ * Building the {@link Grid} (rasterizing the walls, then computing clearance
+ * and regions) and its {@link HierarchicalPathfinder} (searching every
+ * cluster) costs time proportional to the map area, and it is repeated on
+ * every reset. This cache saves both to one binary file per level, named by a
+ * hash of the level JSON and the build settings, and reads the file back in
+ * one piece on the next load. A restart of an unchanged level then only
+ * copies the saved layers into place.
+ *
+ * A changed level (or setting) hashes to a different file. The hash also
+ * covers {@link Grid#MAX_CLEARANCE} and the build versions of the grid and
+ * the hierarchy, but not the code itself: a change to how either is built
+ * only misses the cache if its BUILD_VERSION is changed with it. Otherwise
+ * the old files are loaded as if they were current.
+ *
+ * A file that cannot be read, or does not fit the level, is treated as a
+ * miss and the caller rebuilds as usual. Files are written under a temporary
+ * name and then renamed, so a crash mid-write leaves no partial file behind.
+ * They are read into memory rather than mapped, so no file stays locked (as
+ * a mapping would on Windows) when the same key is saved again.
+ */
+public class NavCache {
+    /** The first four bytes of every cache file ("NAVC") */
+    private static final int MAGIC = 0x4E415643;
+    /** The layout version of the cache files; change this when a layout changes */
+    private static final int FORMAT = 2;
+    /** The FNV-1a offset basis */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    /** The FNV-1a prime */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The directory holding the cache files */
+    private FileHandle directory;
+    /** The grid read by the last successful load */
+    private Grid grid;
+    /** The hierarchy read by the last successful load */
+    private HierarchicalPathfinder hierarchy;
+
+    /**
+     * Creates a cache in the given directory
+     *
+     * The directory is created on the first save.
+     *
+     * @param directory The directory holding the cache files
+     */
+    public NavCache(FileHandle directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cache key for a level and its build settings
+     *
+     * This is a 64-bit FNV-1a hash of the level JSON (in minimal form), the
+     * grid resolution, the cluster size, the largest clearance, the build
+     * versions of the grid and the hierarchy, and the file layout version.
+     *
+     * @param levelFormat  The JSON tree defining the level
+     * @param cellsPerUnit The grid resolution
+     * @param clusterSize  The cluster size of the hierarchy
+     * @return the cache key
+     */
+    public static long getKey(JsonValue levelFormat, float cellsPerUnit, int clusterSize) {
+        long hash = FNV_OFFSET;
+        String text = levelFormat.toJson(JsonWriter.OutputType.minimal);
+        for (int ii = 0; ii < text.length(); ii++) {
+            hash = (hash ^ text.charAt(ii)) * FNV_PRIME;
+        }
+        hash = (hash ^ Float.floatToIntBits(cellsPerUnit)) * FNV_PRIME;
+        hash = (hash ^ clusterSize) * FNV_PRIME;
+        hash = (hash ^ Grid.MAX_CLEARANCE) * FNV_PRIME;
+        hash = (hash ^ Grid.BUILD_VERSION) * FNV_PRIME;
+        hash = (hash ^ HierarchicalPathfinder.BUILD_VERSION) * FNV_PRIME;
+        hash = (hash ^ FORMAT) * FNV_PRIME;
+        return hash;
+    }
+
+    /**
+     * Returns the grid read by the last successful load
+     *
+     * @return the grid read by the last successful load
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Returns the hierarchy read by the last successful load
+     *
+     * @return the hierarchy read by the last successful load
+     */
+    public HierarchicalPathfinder getHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Loads the navigation data saved for a level, if there is any
+     *
+     * On success, {@link #getGrid} and {@link #getHierarchy} hold the data.
+     *
+     * @param key          The cache key of the level (see {@link #getKey})
+     * @param levelModel   The level the data is for
+     * @param cellsPerUnit The grid resolution
+     * @return True if the data was loaded, false if it must be rebuilt
+     */
+    public boolean load(long key, LevelModel levelModel, float cellsPerUnit) {
+        grid = null;
+        hierarchy = null;
+        FileHandle file = getFile(key);
+        if (!file.exists()) {
+            return false;
+        }
+        try {
+            ByteBuffer data = ByteBuffer.wrap(file.readBytes()).order(ByteOrder.BIG_ENDIAN);
+            if (data.getInt() != MAGIC || data.getInt() != FORMAT || data.getLong() != key) {
+                return false;
+            }
+            Grid loaded = new Grid(levelModel, cellsPerUnit, data);
+            hierarchy = new HierarchicalPathfinder(loaded, data);
+            grid = loaded;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // A truncated or foreign file is just a miss
+            hierarchy = null;
+            return false;
+        }
+    }
+
+    /**
+     * Saves the navigation data for a level
+     *
+     * This should be called right after building the data, before any
+     * footprints are stamped on the grid.
+     *
+     * @param key       The cache key of the level (see {@link #getKey})
+     * @param grid      The grid to save
+     * @param hierarchy The hierarchy to save
+     * @return True if the data was saved
+     */
+    public boolean save(long key, Grid grid, HierarchicalPathfinder hierarchy) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(key);
+            grid.write(out);
+            hierarchy.write(out);
+            out.flush();
+
+            FileHandle file = getFile(key);
+            FileHandle temp = file.sibling(file.name() + ".tmp");
+            temp.writeBytes(bytes.toByteArray(), false);
+            temp.moveTo(file);
+            return true;
+        } catch (IOException | GdxRuntimeException e) {
+            // The cache is only an optimization, so failing to save is not fatal
+            return false;
+        }
+    }
+
+    /**
+     * Returns the cache file for a key
+     */
+    private FileHandle getFile(long key) {
+        return directory.child(String.format("%016x.nav", key));
+    }
+}
@@ -0,0 +1,656 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import edu.cornell.gdiac.physics.obstacle.Obstacle;
+import edu.cornell.gdiac.util.IntBinaryHeap;
+
+import java.util.Arrays;
+
+/**
+ * A navigation mesh of convex polygons built from the level's wall geometry
+ *
+ * Unlike the {@link Grid}, this works directly in physics coordinates, so its
+ * size depends on how many walls there are rather than how large the map is.
+ * Every wall is inflated by the agent radius, and the free space left inside
+ * the level bounds is cut into axis-aligned rectangles (which are convex).
+ * Neighbouring rectangles meet at portals: the stretch of edge they share.
+ *
+ * A query runs A* over the rectangles, then pulls the path taut through its
+ * portals with the funnel algorithm. The result is a list of corner points
+ * the agent can walk between in straight lines.
+ *
+ * The free space is cut with a sweep over x: the level is split into vertical
+ * slabs at every x where an inflated wall starts or ends, and each slab is
+ * split into the runs of y not covered by a wall. Runs with the same extent in
+ * neighbouring slabs are merged into one rectangle. Walls are inflated by a
+ * square rather than a disc, and a wall edge that is neither horizontal nor
+ * vertical is approximated by a staircase, so the mesh never includes space
+ * the agent cannot reach. Level walls are axis-aligned, so for them the mesh
+ * is exact.
+ */
+public class NavMesh {
+    /** The tolerance for coordinates that should be the same */
+    private static final float EPSILON = 1.0e-4f;
+
+    /** The number of rectangles */
+    private int count;
+    /** The left edge of each rectangle */
+    private float[] minX;
+    /** The bottom edge of each rectangle */
+    private float[] minY;
+    /** The right edge of each rectangle */
+    private float[] maxX;
+    /** The top edge of each rectangle */
+    private float[] maxY;
+
+    /** The first portal of each rectangle (the portals of rectangle i are [first[i],first[i+1])) */
+    private int[] first;
+    /** The rectangle on the other side of each portal */
+    private int[] neighbor;
+    /** The x coordinate of each portal (portals are vertical) */
+    private float[] portalX;
+    /** The bottom of each portal */
+    private float[] portalMinY;
+    /** The top of each portal */
+    private float[] portalMaxY;
+
+    /** The frontier of the search */
+    private IntBinaryHeap open;
+    /** The cost to reach each rectangle */
+    private float[] cost;
+    /** The point where the search entered each rectangle */
+    private float[] entryX;
+    /** The point where the search entered each rectangle */
+    private float[] entryY;
+    /** The portal the search entered each rectangle through */
+    private int[] parent;
+    /** The search generation in which each rectangle was reached */
+    private int[] seen;
+    /** The search generation in which each rectangle was closed */
+    private int[] closed;
+    /** The current search generation */
+    private int generation;
+    /** The number of rectangles expanded by the last query */
+    private int expanded;
+
+    /** The portals crossed by the last query, from the goal back to the start */
+    private IntArray corridor = new IntArray();
+    /** The left and right end of each portal in the funnel (lx, ly, rx, ry) */
+    private FloatArray funnel = new FloatArray();
+
+    /**
+     * Creates a navigation mesh from the walls of a level
+     *
+     * Walls are the {@link InteriorModel} boxes and the {@link ExteriorModel}
+     * polygons.
+     *
+     * @param levelModel The level model containing obstacles
+     * @param radius     The radius of the agents that use the mesh
+     */
+    public NavMesh(LevelModel levelModel, float radius) {
+        Array<float[]> walls = new Array<float[]>();
+        for (Obstacle obj : levelModel.objects) {
+            if (obj instanceof InteriorModel) {
+                InteriorModel wall = (InteriorModel) obj;
+                float x0 = wall.getX() - wall.getWidth() / 2;
+                float y0 = wall.getY() - wall.getHeight() / 2;
+                float x1 = wall.getX() + wall.getWidth() / 2;
+                float y1 = wall.getY() + wall.getHeight() / 2;
+                walls.add(new float[] {x0, y0, x1, y0, x1, y1, x0, y1});
+            } else if (obj instanceof ExteriorModel) {
+                // The physics body is a fan of triangles (6 floats each) about the body origin
+                float[] verts = ((ExteriorModel) obj).getTriangles();
+                for (int ii = 0; ii + 6 <= verts.length; ii += 6) {
+                    float[] tri = new float[6];
+                    for (int jj = 0; jj < 6; jj += 2) {
+                        tri[jj] = verts[ii + jj] + obj.getX();
+                        tri[jj + 1] = verts[ii + jj + 1] + obj.getY();
+                    }
+                    walls.add(tri);
+                }
+            }
+        }
+        build(levelModel.getBounds(), walls, radius);
+    }
+
+    /**
+     * Creates a navigation mesh from a list of convex walls
+     *
+     * Each wall is a convex polygon given as a flat array of vertices.
+     *
+     * @param bounds The level bounds (in physics coordinates)
+     * @param walls  The convex walls (in physics coordinates)
+     * @param radius The radius of the agents that use the mesh
+     */
+    public NavMesh(Rectangle bounds, Array<float[]> walls, float radius) {
+        build(bounds, walls, radius);
+    }
+
+    /**
+     * Returns the number of rectangles in the mesh
+     *
+     * @return the number of rectangles in the mesh
+     */
+    public int getPolygonCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of portals in the mesh
+     *
+     * Each shared edge is counted once from either side.
+     *
+     * @return the number of portals in the mesh
+     */
+    public int getPortalCount() {
+        return first[count];
+    }
+
+    /**
+     * Returns the number of rectangles expanded by the last query
+     *
+     * @return the number of rectangles expanded by the last query
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * Copies the bounds of a rectangle of the mesh
+     *
+     * @param polygon The rectangle index
+     * @param out     The rectangle to hold the bounds
+     * @return the rectangle out, for chaining
+     */
+    public Rectangle getPolygon(int polygon, Rectangle out) {
+        return out.set(minX[polygon], minY[polygon],
+                maxX[polygon] - minX[polygon], maxY[polygon] - minY[polygon]);
+    }
+
+    /**
+     * Returns the rectangle of the mesh containing a point, or -1
+     *
+     * @param x The x physics coordinate
+     * @param y The y physics coordinate
+     * @return the rectangle containing the point, or -1 if it is not walkable
+     */
+    public int findPolygon(float x, float y) {
+        for (int ii = 0; ii < count; ii++) {
+            if (x >= minX[ii] && x <= maxX[ii] && y >= minY[ii] && y <= maxY[ii]) {
+                return ii;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the rectangle of the mesh nearest to a point, or -1 if the mesh is empty
+     *
+     * An agent pressed against a wall can be slightly inside its inflated
+     * bounds, so queries start from the nearest walkable rectangle.
+     *
+     * @param x The x physics coordinate
+     * @param y The y physics coordinate
+     * @return the rectangle nearest to the point
+     */
+    public int findNearestPolygon(float x, float y) {
+        int best = -1;
+        float bestDistance = Float.MAX_VALUE;
+        for (int ii = 0; ii < count; ii++) {
+            float dx = Math.max(0, Math.max(minX[ii] - x, x - maxX[ii]));
+            float dy = Math.max(0, Math.max(minY[ii] - y, y - maxY[ii]));
+            float distance = dx * dx + dy * dy;
+            if (distance < bestDistance) {
+                best = ii;
+                bestDistance = distance;
+                if (distance == 0) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds a path between two points
+     *
+     * The path is stored in out as (x,y) pairs, from the start to the goal
+     * inclusive, with a point at every corner the agent must turn. Points
+     * outside the walkable space are first moved to the nearest walkable
+     * point. If there is no path, out is left empty.
+     *
+     * @param startX The x physics coordinate of the start
+     * @param startY The y physics coordinate of the start
+     * @param goalX  The x physics coordinate of the goal
+     * @param goalY  The y physics coordinate of the goal
+     * @param out    The array to hold the path
+     * @return True if a path was found
+     */
+    public boolean findPath(float startX, float startY, float goalX, float goalY, FloatArray out) {
+        out.clear();
+        expanded = 0;
+        int start = findNearestPolygon(startX, startY);
+        int goal = findNearestPolygon(goalX, goalY);
+        if (start < 0 || goal < 0) {
+            return false;
+        }
+        startX = Math.max(minX[start], Math.min(maxX[start], startX));
+        startY = Math.max(minY[start], Math.min(maxY[start], startY));
+        goalX = Math.max(minX[goal], Math.min(maxX[goal], goalX));
+        goalY = Math.max(minY[goal], Math.min(maxY[goal], goalY));
+
+        if (!search(start, goal, startX, startY, goalX, goalY)) {
+            return false;
+        }
+
+        // List the portals from start to goal, left end first
+        corridor.clear();
+        for (int poly = goal; poly != start; ) {
+            int portal = parent[poly];
+            corridor.add(portal);
+            poly = owner(portal);
+        }
+        funnel.clear();
+        funnel.add(startX, startY, startX, startY);
+        for (int ii = corridor.size - 1; ii >= 0; ii--) {
+            int portal = corridor.get(ii);
+            float x = portalX[portal];
+            if (x >= maxX[owner(portal)] - EPSILON) {
+                // Heading right: the left end is the top
+                funnel.add(x, portalMaxY[portal], x, portalMinY[portal]);
+            } else {
+                funnel.add(x, portalMinY[portal], x, portalMaxY[portal]);
+            }
+        }
+        funnel.add(goalX, goalY, goalX, goalY);
+        pullString(out);
+        return true;
+    }
+
+    /**
+     * Runs A* over the rectangles between two points
+     *
+     * A rectangle is entered at the point of its portal nearest the straight
+     * line from the last entry point to the goal, and the cost of a step is
+     * the distance between entry points. The funnel then shortens the path,
+     * so the route it picks is good but not always the very shortest.
+     *
+     * @return True if the goal rectangle was reached
+     */
+    private boolean search(int start, int goal, float startX, float startY, float goalX, float goalY) {
+        if (++generation == 0) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            generation = 1;
+        }
+        open.clear();
+        seen[start] = generation;
+        cost[start] = 0;
+        entryX[start] = startX;
+        entryY[start] = startY;
+        parent[start] = -1;
+        open.add(start, distance(startX, startY, goalX, goalY));
+
+        while (!open.isEmpty()) {
+            int poly = open.pop();
+            if (poly == goal) {
+                return true;
+            }
+            closed[poly] = generation;
+            expanded++;
+            for (int portal = first[poly]; portal < first[poly + 1]; portal++) {
+                int next = neighbor[portal];
+                if (closed[next] == generation) {
+                    continue;
+                }
+                float x = portalX[portal];
+                float y = entryY[poly];
+                if (Math.abs(goalX - entryX[poly]) > EPSILON) {
+                    y += (goalY - entryY[poly]) * (x - entryX[poly]) / (goalX - entryX[poly]);
+                }
+                y = Math.max(portalMinY[portal], Math.min(portalMaxY[portal], y));
+                float g = cost[poly] + distance(entryX[poly], entryY[poly], x, y);
+                if (seen[next] != generation || g < cost[next]) {
+                    seen[next] = generation;
+                    cost[next] = g;
+                    entryX[next] = x;
+                    entryY[next] = y;
+                    parent[next] = portal;
+                    open.add(next, g + distance(x, y, goalX, goalY));
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pulls the path taut through the funnel portals
+     *
+     * This is the "simple stupid funnel algorithm": the funnel is the pair of
+     * rays from the apex to the two ends of the current portal. Each new
+     * portal narrows a side if it is inside the funnel. When a side would
+     * cross the other one, the other side's end is a corner of the path: it
+     * becomes the new apex and the scan restarts just after it.
+     *
+     * @param out The array to hold the path
+     */
+    private void pullString(FloatArray out) {
+        float[] pts = funnel.items;
+        int portals = funnel.size / 4;
+        float apexX = pts[0];
+        float apexY = pts[1];
+        float leftX = apexX, leftY = apexY;
+        float rightX = apexX, rightY = apexY;
+        int apexIndex = 0, leftIndex = 0, rightIndex = 0;
+        out.add(apexX, apexY);
+
+        for (int ii = 1; ii < portals; ii++) {
+            float lx = pts[4 * ii];
+            float ly = pts[4 * ii + 1];
+            float rx = pts[4 * ii + 2];
+            float ry = pts[4 * ii + 3];
+
+            // Narrow the right side
+            if (area(apexX, apexY, rightX, rightY, rx, ry) <= 0) {
+                if (same(apexX, apexY, rightX, rightY) || area(apexX, apexY, leftX, leftY, rx, ry) > 0) {
+                    rightX = rx;
+                    rightY = ry;
+                    rightIndex = ii;
+                } else {
+                    // The right side crossed the left: the left end is a corner
+                    apexX = leftX;
+                    apexY = leftY;
+                    apexIndex = leftIndex;
+                    addPoint(out, apexX, apexY);
+                    rightX = leftX = apexX;
+                    rightY = leftY = apexY;
+                    rightIndex = leftIndex = apexIndex;
+                    ii = apexIndex;
+                    continue;
+                }
+            }
+
+            // Narrow the left side
+            if (area(apexX, apexY, leftX, leftY, lx, ly) >= 0) {
+                if (same(apexX, apexY, leftX, leftY) || area(apexX, apexY, rightX, rightY, lx, ly) < 0) {
+                    leftX = lx;
+                    leftY = ly;
+                    leftIndex = ii;
+                } else {
+                    // The left side crossed the right: the right end is a corner
+                    apexX = rightX;
+                    apexY = rightY;
+                    apexIndex = rightIndex;
+                    addPoint(out, apexX, apexY);
+                    rightX = leftX = apexX;
+                    rightY = leftY = apexY;
+                    rightIndex = leftIndex = apexIndex;
+                    ii = apexIndex;
+                }
+            }
+        }
+        addPoint(out, pts[4 * (portals - 1)], pts[4 * (portals - 1) + 1]);
+    }
+
+    /**
+     * Appends a point to a path unless it repeats the last one
+     */
+    private static void addPoint(FloatArray out, float x, float y) {
+        if (out.size < 2 || !same(out.get(out.size - 2), out.get(out.size - 1), x, y)) {
+            out.add(x, y);
+        }
+    }
+
+    /**
+     * Returns twice the signed area of triangle abc (negative if c is left of ab)
+     */
+    private static float area(float ax, float ay, float bx, float by, float cx, float cy) {
+        return (cx - ax) * (by - ay) - (bx - ax) * (cy - ay);
+    }
+
+    /**
+     * Returns true if two points are the same (within tolerance)
+     */
+    private static boolean same(float ax, float ay, float bx, float by) {
+        return Math.abs(ax - bx) < EPSILON && Math.abs(ay - by) < EPSILON;
+    }
+
+    /**
+     * Returns the distance between two points
+     */
+    private static float distance(float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Returns the rectangle a portal belongs to
+     *
+     * Portals are stored in rectangle order, so this is a binary search.
+     */
+    private int owner(int portal) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (first[mid] <= portal) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Builds the rectangles and portals of the mesh
+     *
+     * @param bounds The level bounds (in physics coordinates)
+     * @param walls  The convex walls (in physics coordinates)
+     * @param radius The radius of the agents that use the mesh
+     */
+    private void build(Rectangle bounds, Array<float[]> walls, float radius) {
+        float left = bounds.x + radius;
+        float right = bounds.x + bounds.width - radius;
+        float bottom = bounds.y + radius;
+        float top = bounds.y + bounds.height - radius;
+
+        // The slab edges are every x where an inflated wall starts or stops
+        FloatArray edges = new FloatArray();
+        edges.add(left);
+        edges.add(right);
+        for (float[] wall : walls) {
+            for (int ii = 0; ii < wall.length; ii += 2) {
+                for (float x : new float[] {wall[ii] - radius, wall[ii] + radius}) {
+                    if (x > left && x < right) {
+                        edges.add(x);
+                    }
+                }
+            }
+        }
+        edges.sort();
+
+        FloatArray rects = new FloatArray();
+        IntArray lastSlab = new IntArray();
+        IntArray thisSlab = new IntArray();
+        FloatArray covered = new FloatArray();
+        float[] span = new float[2];
+        for (int ii = 0; ii + 1 < edges.size; ii++) {
+            float x0 = edges.get(ii);
+            float x1 = edges.get(ii + 1);
+            if (x1 - x0 < EPSILON) {
+                continue;
+            }
+
+            // Collect the y extents blocked anywhere inside this slab (walls that
+            // only touch its edges do not count)
+            covered.clear();
+            for (float[] wall : walls) {
+                if (clipSpan(wall, x0 - radius + EPSILON, x1 + radius - EPSILON, span)) {
+                    covered.add(span[0] - radius, span[1] + radius);
+                }
+            }
+            sortSpans(covered);
+
+            // Every gap between the blocked spans is a free run
+            thisSlab.clear();
+            float y = bottom;
+            for (int jj = 0; jj <= covered.size; jj += 2) {
+                float end = jj < covered.size ? Math.min(covered.get(jj), top) : top;
+                if (end - y > EPSILON) {
+                    thisSlab.add(addRun(rects, lastSlab, x0, x1, y, end));
+                }
+                if (jj < covered.size) {
+                    y = Math.max(y, covered.get(jj + 1));
+                }
+            }
+            IntArray swap = lastSlab;
+            lastSlab = thisSlab;
+            thisSlab = swap;
+        }
+
+        count = rects.size / 4;
+        minX = new float[count];
+        minY = new float[count];
+        maxX = new float[count];
+        maxY = new float[count];
+        for (int ii = 0; ii < count; ii++) {
+            minX[ii] = rects.get(4 * ii);
+            minY[ii] = rects.get(4 * ii + 1);
+            maxX[ii] = rects.get(4 * ii + 2);
+            maxY[ii] = rects.get(4 * ii + 3);
+        }
+        connect();
+
+        open = new IntBinaryHeap(Math.max(count, 1));
+        cost = new float[count];
+        entryX = new float[count];
+        entryY = new float[count];
+        parent = new int[count];
+        seen = new int[count];
+        closed = new int[count];
+    }
+
+    /**
+     * Adds a free run of a slab to the mesh, merging it into a rectangle
+     * from the slab before if that rectangle has the same extent in y
+     *
+     * @return the rectangle that holds the run
+     */
+    private static int addRun(FloatArray rects, IntArray lastSlab, float x0, float x1, float y0, float y1) {
+        for (int ii = 0; ii < lastSlab.size; ii++) {
+            int rect = lastSlab.get(ii);
+            if (Math.abs(rects.get(4 * rect + 2) - x0) < EPSILON
+                    && Math.abs(rects.get(4 * rect + 1) - y0) < EPSILON
+                    && Math.abs(rects.get(4 * rect + 3) - y1) < EPSILON) {
+                rects.set(4 * rect + 2, x1);
+                return rect;
+            }
+        }
+        rects.add(x0, y0, x1, y1);
+        return rects.size / 4 - 1;
+    }
+
+    /**
+     * Finds the portals between every pair of touching rectangles
+     *
+     * Free runs in one slab are separated by walls, so rectangles can only
+     * touch along vertical edges.
+     */
+    private void connect() {
+        IntArray targets = new IntArray();
+        FloatArray spans = new FloatArray();
+        first = new int[count + 1];
+        for (int ii = 0; ii < count; ii++) {
+            first[ii] = targets.size;
+            for (int jj = 0; jj < count; jj++) {
+                float x;
+                if (Math.abs(maxX[ii] - minX[jj]) < EPSILON) {
+                    x = maxX[ii];
+                } else if (Math.abs(minX[ii] - maxX[jj]) < EPSILON) {
+                    x = minX[ii];
+                } else {
+                    continue;
+                }
+                float y0 = Math.max(minY[ii], minY[jj]);
+                float y1 = Math.min(maxY[ii], maxY[jj]);
+                if (y1 - y0 > EPSILON) {
+                    targets.add(jj);
+                    spans.add(x, y0, y1);
+                }
+            }
+        }
+        first[count] = targets.size;
+        neighbor = targets.toArray();
+        portalX = new float[targets.size];
+        portalMinY = new float[targets.size];
+        portalMaxY = new float[targets.size];
+        for (int ii = 0; ii < targets.size; ii++) {
+            portalX[ii] = spans.get(3 * ii);
+            portalMinY[ii] = spans.get(3 * ii + 1);
+            portalMaxY[ii] = spans.get(3 * ii + 2);
+        }
+    }
+
+    /**
+     * Computes the y extent of a convex polygon between two x coordinates
+     *
+     * @param poly The polygon vertices
+     * @param x0   The left of the slab
+     * @param x1   The right of the slab
+     * @param out  The array to hold the bottom and top of the extent
+     * @return False if the polygon does not reach into the slab
+     */
+    private static boolean clipSpan(float[] poly, float x0, float x1, float[] out) {
+        float lo = Float.MAX_VALUE;
+        float hi = -Float.MAX_VALUE;
+        int n = poly.length / 2;
+        for (int ii = 0; ii < n; ii++) {
+            float ax = poly[2 * ii];
+            float ay = poly[2 * ii + 1];
+            float bx = poly[2 * ((ii + 1) % n)];
+            float by = poly[2 * ((ii + 1) % n) + 1];
+            if (ax >= x0 && ax <= x1) {
+                lo = Math.min(lo, ay);
+                hi = Math.max(hi, ay);
+            }
+            // Where the edge crosses either side of the slab
+            for (float x : new float[] {x0, x1}) {
+                if ((ax - x) * (bx - x) < 0) {
+                    float y = ay + (by - ay) * (x - ax) / (bx - ax);
+                    lo = Math.min(lo, y);
+                    hi = Math.max(hi, y);
+                }
+            }
+        }
+        if (lo > hi) {
+            return false;
+        }
+        out[0] = lo;
+        out[1] = hi;
+        return true;
+    }
+
+    /**
+     * Sorts (start, end) pairs by their start
+     */
+    private static void sortSpans(FloatArray spans) {
+        float[] items = spans.items;
+        for (int ii = 2; ii < spans.size; ii += 2) {
+            float start = items[ii];
+            float end = items[ii + 1];
+            int jj = ii - 2;
+            while (jj >= 0 && items[jj] > start) {
+                items[jj + 2] = items[jj];
+                items[jj + 3] = items[jj + 1];
+                jj -= 2;
+            }
+            items[jj + 2] = start;
+            items[jj + 3] = end;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.LongMap;
+
+/**
+ * A bounded cache of recently found paths, least recently used out first
+ *
+ * Patrolling guards walk the same few legs over and over, so the same
+ * searches keep coming back. Paths are keyed by their start cell, goal cell
+ * and clearance. A path is also filed under its start cluster (a square of
+ * cells, as in {@link HierarchicalPathfinder}) and goal, so an agent that
+ * starts somewhere else in that cluster can still reuse it if its cell lies
+ * on the path: the rest of a shortest path is a shortest path too.
+ *
+ * Every entry remembers the {@link Grid#getWallVersion} it was found on. Once
+ * the walls change, old entries are dropped as they are looked up. The cache
+ * counts hits, misses and drops, so its worth can be measured in play.
+ *
+ * Entries are keyed on primitive longs, and the recency order is a list
+ * threaded through the entries themselves, so lookups box nothing. Once the
+ * cache is full, an evicted entry is reused for the next path stored.
+ */
+public class PathCache {
+    /** The default number of paths kept */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * A cached path
+     */
+    private static class Entry {
+        /** The exact key of this entry */
+        long key;
+        /** The cluster key of this entry */
+        long clusterKey;
+        /** The path (start to goal inclusive) */
+        final IntArray path = new IntArray();
+        /** The positions in path of its any-angle waypoints */
+        final IntArray corners = new IntArray();
+        /** The wall version the path was found on */
+        int wallVersion;
+        /** The next less recently used entry (null for the least recent) */
+        Entry older;
+        /** The next more recently used entry (null for the most recent) */
+        Entry newer;
+    }
+
+    /** The grid the paths are on */
+    private Grid grid;
+    /** The side length of a cluster (in cells) */
+    private int clusterSize;
+    /** The number of clusters across the grid */
+    private int clustersWide;
+    /** The most paths kept */
+    private int capacity;
+    /** The paths by exact key */
+    private LongMap<Entry> entries;
+    /** The most recent path by cluster key */
+    private LongMap<Entry> byCluster;
+    /** The least recently used entry (null if empty) */
+    private Entry oldest;
+    /** The most recently used entry (null if empty) */
+    private Entry newest;
+    /** An evicted entry to reuse, so steady use allocates nothing new */
+    private Entry spare;
+
+    /** The number of lookups answered with an exact path */
+    private int hits;
+    /** The number of lookups answered with the rest of another path */
+    private int clusterHits;
+    /** The number of lookups with no answer */
+    private int misses;
+    /** The number of entries dropped because the walls changed */
+    private int invalidated;
+    /** The number of entries dropped to make room */
+    private int evicted;
+
+    /**
+     * Creates an empty cache for the given grid
+     *
+     * @param grid        The grid the paths are on
+     * @param capacity    The most paths kept
+     * @param clusterSize The side length of a cluster (in cells)
+     */
+    public PathCache(Grid grid, int capacity, int clusterSize) {
+        this.grid = grid;
+        this.capacity = Math.max(1, capacity);
+        this.clusterSize = Math.max(1, clusterSize);
+        this.clustersWide = (grid.getWidth() + this.clusterSize - 1) / this.clusterSize;
+        // Sized so that a full cache never resizes the maps
+        entries = new LongMap<Entry>(2 * this.capacity);
+        byCluster = new LongMap<Entry>(2 * this.capacity);
+    }
+
+    /**
+     * Returns the grid the paths are on
+     *
+     * @return the grid the paths are on
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Returns the number of paths in the cache
+     *
+     * @return the number of paths in the cache
+     */
+    public int size() {
+        return entries.size;
+    }
+
+    /**
+     * Returns the number of lookups answered with an exact path
+     *
+     * @return the number of lookups answered with an exact path
+     */
+    public int getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups answered with the rest of a path from the same cluster
+     *
+     * @return the number of lookups answered with the rest of a path from the same cluster
+     */
+    public int getClusterHitCount() {
+        return clusterHits;
+    }
+
+    /**
+     * Returns the number of lookups with no answer
+     *
+     * @return the number of lookups with no answer
+     */
+    public int getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries dropped because the walls changed
+     *
+     * @return the number of entries dropped because the walls changed
+     */
+    public int getInvalidatedCount() {
+        return invalidated;
+    }
+
+    /**
+     * Returns the number of entries dropped to make room
+     *
+     * @return the number of entries dropped to make room
+     */
+    public int getEvictedCount() {
+        return evicted;
+    }
+
+    /**
+     * Returns the share of lookups answered from the cache (0 if none yet)
+     *
+     * @return the share of lookups answered from the cache
+     */
+    public float getHitRate() {
+        int total = hits + clusterHits + misses;
+        return total == 0 ? 0 : (hits + clusterHits) / (float)total;
+    }
+
+    /**
+     * Removes every path and resets the counters
+     */
+    public void clear() {
+        entries.clear();
+        byCluster.clear();
+        oldest = newest = null;
+        hits = clusterHits = misses = invalidated = evicted = 0;
+    }
+
+    /**
+     * Looks up a path between two cells
+     *
+     * On a hit, the path and its waypoint positions are copied into path and
+     * corners (which are cleared first). On a miss they are left alone.
+     *
+     * @param start     The cell index of the start
+     * @param goal      The cell index of the goal
+     * @param clearance The clearance the path was searched with
+     * @param path      The array to hold the path
+     * @param corners   The array to hold the positions of the waypoints in path
+     * @return True if a path was found in the cache
+     */
+    public boolean lookup(int start, int goal, int clearance, IntArray path, IntArray corners) {
+        Entry entry = fresh(entries.get(getKey(start, goal, clearance)));
+        if (entry != null) {
+            path.clear();
+            path.addAll(entry.path);
+            corners.clear();
+            corners.addAll(entry.corners);
+            touch(entry);
+            hits++;
+            return true;
+        }
+
+        entry = fresh(byCluster.get(getClusterKey(start, goal, clearance)));
+        int index = entry == null ? -1 : entry.path.indexOf(start);
+        if (index >= 0) {
+            path.clear();
+            path.addAll(entry.path, index, entry.path.size - index);
+            corners.clear();
+            for (int ii = 0; ii < entry.corners.size; ii++) {
+                if (entry.corners.get(ii) > index) {
+                    corners.add(entry.corners.get(ii) - index);
+                }
+            }
+            touch(entry);
+            clusterHits++;
+            return true;
+        }
+        misses++;
+        return false;
+    }
+
+    /**
+     * Adds a path to the cache
+     *
+     * Empty paths (unreachable goals) are not kept, since {@link Grid#canReach}
+     * already rejects those in O(1). If the cache is full, the least recently
+     * used path is dropped.
+     *
+     * @param path        The path (start to goal inclusive)
+     * @param corners     The positions in path of its any-angle waypoints
+     * @param clearance   The clearance the path was searched with
+     * @param wallVersion The wall version the path was found on
+     */
+    public void store(IntArray path, IntArray corners, int clearance, int wallVersion) {
+        if (path.size == 0 || wallVersion != grid.getWallVersion()) {
+            return;
+        }
+        int start = path.first();
+        int goal = path.peek();
+        long key = getKey(start, goal, clearance);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size >= capacity) {
+                spare = oldest;
+                remove(spare);
+                evicted++;
+            }
+            entry = spare != null ? spare : new Entry();
+            spare = null;
+            entries.put(key, entry);
+        }
+        touch(entry);
+        entry.key = key;
+        entry.clusterKey = getClusterKey(start, goal, clearance);
+        entry.path.clear();
+        entry.path.addAll(path);
+        entry.corners.clear();
+        entry.corners.addAll(corners);
+        entry.wallVersion = wallVersion;
+        byCluster.put(entry.clusterKey, entry);
+    }
+
+    /**
+     * Returns the entry if it is still valid, dropping it if the walls changed
+     */
+    private Entry fresh(Entry entry) {
+        if (entry == null || entry.wallVersion == grid.getWallVersion()) {
+            return entry;
+        }
+        remove(entry);
+        invalidated++;
+        return null;
+    }
+
+    /**
+     * Moves an entry to the most recent end of the recency list (adding it if new)
+     */
+    private void touch(Entry entry) {
+        if (entry == newest) {
+            return;
+        }
+        unlink(entry);
+        entry.older = newest;
+        entry.newer = null;
+        if (newest != null) {
+            newest.newer = entry;
+        }
+        newest = entry;
+        if (oldest == null) {
+            oldest = entry;
+        }
+    }
+
+    /**
+     * Takes an entry out of the recency list (if it is in it)
+     */
+    private void unlink(Entry entry) {
+        if (entry.older != null) {
+            entry.older.newer = entry.newer;
+        } else if (oldest == entry) {
+            oldest = entry.newer;
+        }
+        if (entry.newer != null) {
+            entry.newer.older = entry.older;
+        } else if (newest == entry) {
+            newest = entry.older;
+        }
+        entry.older = entry.newer = null;
+    }
+
+    /**
+     * Removes an entry from both indices and the recency list
+     */
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        unfile(entry);
+        unlink(entry);
+    }
+
+    /**
+     * Removes an entry from the cluster index if it is the one filed there
+     */
+    private void unfile(Entry entry) {
+        if (byCluster.get(entry.clusterKey) == entry) {
+            byCluster.remove(entry.clusterKey);
+        }
+    }
+
+    /**
+     * Returns the exact key for a start, goal and clearance
+     */
+    private long getKey(int start, int goal, int clearance) {
+        long cells = (long)grid.getWidth() * grid.getHeight();
+        return ((start * cells) + goal) * (Grid.MAX_CLEARANCE + 1) + clearance;
+    }
+
+    /**
+     * Returns the cluster key for a start, goal and clearance
+     */
+    private long getClusterKey(int start, int goal, int clearance) {
+        int width = grid.getWidth();
+        int cluster = (start / width / clusterSize) * clustersWide + (start % width) / clusterSize;
+        long cells = (long)grid.getWidth() * grid.getHeight();
+        return ((cluster * cells) + goal) * (Grid.MAX_CLEARANCE + 1) + clearance;
+    }
+}
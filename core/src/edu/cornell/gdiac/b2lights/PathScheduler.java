@@ -0,0 +1,475 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.utils.BinaryHeap;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.TimeUtils;
+
+/**
+ * A queue of path searches that runs within a per-frame time budget
+ *
+ * Agents submit requests instead of searching on the spot. Once a frame,
+ * {@link #update} works through the queue in priority order until the budget
+ * is spent. A search that does not finish is resumed on the next frame, so a
+ * burst of requests (e.g. every guard alerted at once) is spread over several
+ * frames instead of spiking one. Until its request is ready, an agent should
+ * keep doing what it was doing.
+ *
+ * Requests are ordered first by {@link Priority}, then by distance to the
+ * nearest player (closer first). There is one search running at a time, so
+ * the scheduler needs only one pathfinder's worth of memory.
+ *
+ * The game runs its searches on {@link AsyncPathService}, which takes the
+ * same requests, wherever it has threads. This scheduler is used instead on
+ * the web backend, which has none.
+ */
+public class PathScheduler {
+
+    /** The urgency of a request, most urgent first */
+    public enum Priority {
+        /** The agent is chasing a player */
+        CHASE,
+        /** The agent is investigating an alert (meow, camera) */
+        ALERT,
+        /** The agent is patrolling */
+        PATROL;
+
+        /** The priority span reserved for each tier (larger than any distance) */
+        private static final float TIER_SPAN = 1.0e6f;
+
+        /**
+         * Returns the queue order of a request at this priority (smaller first)
+         *
+         * Every request of a more urgent tier comes before any of a less
+         * urgent one. Within a tier, nearer requests come first.
+         *
+         * @param distance The distance from the agent to the nearest player
+         * @return the queue order of a request at this priority
+         */
+        public float getValue(float distance) {
+            return ordinal() * TIER_SPAN + Math.min(distance, TIER_SPAN - 1);
+        }
+    }
+    /** The number of cells to expand between checks of the clock */
+    private static final int SLICE = 32;
+
+    /**
+     * A path request owned by a single agent
+     *
+     * An agent keeps one request and resubmits it every frame. Resubmitting
+     * with the same goal is free while the request is pending, or while the
+     * agent is still on the path that was found. The same request type is
+     * used by {@link AsyncPathService}.
+     */
+    public static class Request extends BinaryHeap.Node {
+        /** The x grid coordinate of the start */
+        int startX;
+        /** The y grid coordinate of the start */
+        int startY;
+        /** The goal cell, or -1 if the request was never submitted */
+        int goal = -1;
+        /** Whether the request is waiting in the queue */
+        boolean queued;
+        /** Whether the search for the current goal has finished */
+        boolean ready;
+        /** The path found (start to goal inclusive), empty if none */
+        IntArray path = new IntArray();
+        /** The positions in path of its any-angle waypoints */
+        IntArray corners = new IntArray();
+        /** The position on the path where the agent was last seen */
+        int cursor;
+        /** The submission count; a background search for an older one is stale */
+        volatile int version;
+        /** The wall version of the grid the path was found on */
+        int wallVersion;
+
+        /** Creates an empty request */
+        public Request() {
+            super(0);
+        }
+
+        /**
+         * Returns true if the search for the current goal has finished
+         *
+         * @return true if the search for the current goal has finished
+         */
+        public boolean isReady() {
+            return ready;
+        }
+
+        /**
+         * Returns true if the search finished and found a path
+         *
+         * @return true if the search finished and found a path
+         */
+        public boolean hasPath() {
+            return ready && path.size > 0;
+        }
+
+        /**
+         * Returns the next cell on the path from the given cell
+         *
+         * If the cell is the goal, this is the index of the goal. If the
+         * request is not ready, has no path, or the cell is not on the path,
+         * this is -1.
+         *
+         * @param cell The cell index of the agent
+         * @return The cell index of the next step, or -1
+         */
+        public int getNextStep(int cell) {
+            int index = find(cell);
+            if (index < 0) {
+                return -1;
+            }
+            cursor = index;
+            return path.get(Math.min(index + 1, path.size - 1));
+        }
+
+        /**
+         * Returns the next any-angle waypoint on the path from the given cell
+         *
+         * This is the first corner of the path after the cell, so an agent
+         * can steer straight at it instead of stepping cell by cell. If the
+         * cell is the goal, this is the index of the goal. If the request is
+         * not ready, has no path, or the cell is not on the path, this is -1.
+         *
+         * @param cell The cell index of the agent
+         * @return The cell index of the next waypoint, or -1
+         */
+        public int getNextWaypoint(int cell) {
+            int index = find(cell);
+            if (index < 0) {
+                return -1;
+            }
+            cursor = index;
+            for (int ii = 0; ii < corners.size; ii++) {
+                if (corners.get(ii) > index) {
+                    return path.get(corners.get(ii));
+                }
+            }
+            return path.get(path.size - 1);
+        }
+
+        /**
+         * Returns true if a wall change since the search spoiled the result
+         *
+         * The rest of a path is spoiled if a cell on it became too narrow.
+         * An empty result is spoiled if the goal may have become reachable.
+         * Otherwise the result is brought up to the current wall version, so
+         * walls changing somewhere else never cost a search.
+         */
+        boolean isStale(Grid grid, int clearance) {
+            int walls = grid.getWallVersion();
+            if (!ready || wallVersion == walls) {
+                return false;
+            }
+            int width = grid.getWidth();
+            if (path.size == 0) {
+                if (grid.canReach(startX, startY, goal % width, goal / width)) {
+                    return true;
+                }
+            } else {
+                for (int ii = cursor + 1; ii < path.size; ii++) {
+                    int cell = path.get(ii);
+                    if (grid.getClearance(cell % width, cell / width) < clearance) {
+                        return true;
+                    }
+                }
+            }
+            wallVersion = walls;
+            return false;
+        }
+
+        /**
+         * Returns the position of the cell on the path, or -1
+         *
+         * Agents move forward, so the search starts at the last position.
+         */
+        int find(int cell) {
+            if (!ready) {
+                return -1;
+            }
+            for (int ii = cursor; ii < path.size; ii++) {
+                if (path.get(ii) == cell) {
+                    return ii;
+                }
+            }
+            for (int ii = Math.min(cursor, path.size) - 1; ii >= 0; ii--) {
+                if (path.get(ii) == cell) {
+                    return ii;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** The pathfinder shared by all requests */
+    private AStarPathfinder pathfinder;
+    /** The queued requests */
+    private BinaryHeap<Request> queue;
+    /** The request whose search is in progress, or null */
+    private Request active;
+    /** The cache of finished paths, or null */
+    private PathCache cache;
+    /** The time budget per frame (in milliseconds) */
+    private float budget;
+
+    /** The number of frames whose work ran over budget */
+    private int overruns;
+    /** The number of searches finished */
+    private int completed;
+    /** The time spent in the last update (in milliseconds) */
+    private float lastTime;
+
+    /**
+     * Creates a scheduler for the given grid
+     *
+     * Searches use jump point mode with 4-way movement.
+     *
+     * @param grid   The grid to search
+     * @param budget The time budget per frame (in milliseconds)
+     */
+    public PathScheduler(Grid grid, float budget) {
+        pathfinder = new AStarPathfinder(grid);
+        queue = new BinaryHeap<Request>();
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the grid this scheduler searches
+     *
+     * @return the grid this scheduler searches
+     */
+    public Grid getGrid() {
+        return pathfinder.getGrid();
+    }
+
+    /**
+     * Returns the time budget per frame (in milliseconds)
+     *
+     * @return the time budget per frame (in milliseconds)
+     */
+    public float getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets the time budget per frame (in milliseconds)
+     *
+     * @param value the time budget per frame (in milliseconds)
+     */
+    public void setBudget(float value) {
+        budget = value;
+    }
+
+    /**
+     * Returns the clearance a cell needs to be walkable
+     *
+     * @return the clearance a cell needs to be walkable
+     */
+    public int getClearance() {
+        return pathfinder.getClearance();
+    }
+
+    /**
+     * Sets the clearance a cell needs to be walkable
+     *
+     * This applies to searches started after the call.
+     *
+     * @param value the clearance a cell needs to be walkable
+     */
+    public void setClearance(int value) {
+        pathfinder.setClearance(value);
+    }
+
+    /**
+     * Returns the cache of finished paths, or null if there is none
+     *
+     * @return the cache of finished paths, or null if there is none
+     */
+    public PathCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the cache of finished paths
+     *
+     * A request whose path is in the cache is ready as soon as it is
+     * submitted, and every path found is added to the cache.
+     *
+     * @param value the cache of finished paths (null for none)
+     */
+    public void setCache(PathCache value) {
+        cache = value;
+    }
+
+    /**
+     * Returns the number of requests waiting or in progress
+     *
+     * @return the number of requests waiting or in progress
+     */
+    public int getQueueDepth() {
+        return queue.size + (active != null ? 1 : 0);
+    }
+
+    /**
+     * Returns the number of frames whose work ran over budget
+     *
+     * The clock is only checked between slices, so a frame overruns when a
+     * slice takes longer than the one before it (or the first slice alone is
+     * over budget).
+     *
+     * @return the number of frames whose work ran over budget
+     */
+    public int getOverrunCount() {
+        return overruns;
+    }
+
+    /**
+     * Returns the number of searches finished
+     *
+     * @return the number of searches finished
+     */
+    public int getCompletedCount() {
+        return completed;
+    }
+
+    /**
+     * Returns the time spent in the last update (in milliseconds)
+     *
+     * @return the time spent in the last update (in milliseconds)
+     */
+    public float getLastTime() {
+        return lastTime;
+    }
+
+    /**
+     * Submits (or resubmits) a request for a path between two cells
+     *
+     * If the request already has this goal and is pending, only its start and
+     * priority are updated. If it is ready and the start is still on its path
+     * (or the goal was found to be unreachable), nothing changes unless the
+     * walls changed in a way that spoils the result. Otherwise it is answered
+     * from the cache if possible, or queued for a new search.
+     *
+     * @param request  The request to submit
+     * @param startX   The x grid coordinate of the agent
+     * @param startY   The y grid coordinate of the agent
+     * @param goalX    The x grid coordinate of the goal
+     * @param goalY    The y grid coordinate of the goal
+     * @param priority The urgency of the request
+     * @param distance The distance from the agent to the nearest player
+     */
+    public void submit(Request request, int startX, int startY, int goalX, int goalY,
+                       Priority priority, float distance) {
+        Grid grid = getGrid();
+        if (!grid.inBounds(startX, startY) || !grid.inBounds(goalX, goalY)) {
+            cancel(request);
+            request.goal = -1;
+            request.path.clear();
+            request.corners.clear();
+            request.ready = true;
+            return;
+        }
+
+        int goal = grid.index(goalX, goalY);
+        float value = priority.getValue(distance);
+        if (goal == request.goal) {
+            if (request.queued) {
+                request.startX = startX;
+                request.startY = startY;
+                queue.setValue(request, value);
+                return;
+            } else if (request == active) {
+                return;
+            } else if (((request.ready && request.path.size == 0) || request.find(grid.index(startX, startY)) >= 0)
+                    && !request.isStale(grid, getClearance())) {
+                // Unreachable goals stay unreachable while the walls are unchanged
+                return;
+            }
+        }
+
+        if (request == active) {
+            active = null;
+        }
+        request.startX = startX;
+        request.startY = startY;
+        request.goal = goal;
+        request.ready = false;
+        request.path.clear();
+        request.corners.clear();
+        request.cursor = 0;
+        if (cache != null && cache.lookup(grid.index(startX, startY), goal, getClearance(),
+                request.path, request.corners)) {
+            cancel(request);
+            request.wallVersion = grid.getWallVersion();
+            request.ready = true;
+            return;
+        }
+        if (request.queued) {
+            queue.setValue(request, value);
+        } else {
+            queue.add(request, value);
+            request.queued = true;
+        }
+    }
+
+    /**
+     * Withdraws a request from the scheduler
+     *
+     * The request keeps any path it already had.
+     *
+     * @param request The request to withdraw
+     */
+    public void cancel(Request request) {
+        if (request.queued) {
+            queue.remove(request);
+            request.queued = false;
+        }
+        if (request == active) {
+            active = null;
+        }
+    }
+
+    /**
+     * Spends up to one frame's budget on the queued searches
+     *
+     * Work is done in slices, and a slice is only started if the last one
+     * would still fit in the budget. At least one slice runs every frame, so
+     * the queue always makes progress.
+     */
+    public void update() {
+        long begin = TimeUtils.nanoTime();
+        long limit = (long)(budget * 1000000L);
+        long elapsed = 0;
+        long slice = 0;
+        while ((active != null || queue.notEmpty()) && (slice == 0 || elapsed + slice <= limit)) {
+            if (active == null) {
+                active = queue.pop();
+                active.queued = false;
+                Grid grid = getGrid();
+                active.wallVersion = grid.getWallVersion();
+                int width = grid.getWidth();
+                pathfinder.startSearch(active.startX, active.startY, active.goal % width, active.goal / width,
+                        AStarPathfinder.Mode.JUMP_POINT);
+            }
+            if (pathfinder.continueSearch(SLICE) != AStarPathfinder.Status.RUNNING) {
+                pathfinder.getPath(active.path);
+                pathfinder.pullString(active.path, active.corners);
+                if (cache != null) {
+                    cache.store(active.path, active.corners, getClearance(), active.wallVersion);
+                }
+                active.cursor = 0;
+                active.ready = true;
+                active = null;
+                completed++;
+            }
+            long now = TimeUtils.nanoTime() - begin;
+            slice = Math.max(now - elapsed, 1);
+            elapsed = now;
+        }
+        if (elapsed > limit) {
+            overruns++;
+        }
+        lastTime = elapsed / 1000000.0f;
+    }
+}
@@ -0,0 +1,654 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import edu.cornell.gdiac.physics.obstacle.Obstacle;
+import edu.cornell.gdiac.util.IntBinaryHeap;
+
+import java.util.Arrays;
+
+/**
+ * A navigation grid whose cells are as large as the walls allow
+ *
+ * A {@link Grid} stores every cell of the map at the same resolution, so a
+ * large empty room costs as much as a maze of the same area. This grid has the
+ * same cells (and the same coordinates, see {@link #physicsToGridX}), but
+ * stores them in a quadtree: a square that is all wall or all open is a single
+ * leaf, and only squares that hold both are split into four. Fine leaves
+ * gather along wall edges and doorways while open rooms are covered by a few
+ * large ones, so memory and search both grow with the outline of the walls
+ * rather than with the area of the map.
+ *
+ * The tree is stored in flat arrays. The four children of a split node are
+ * consecutive, in the order bottom left, bottom right, top left, top right.
+ * Cells outside the map count as walls.
+ *
+ * A search runs A* over the open leaves. Two leaves are neighbours if they
+ * share part of an edge, whatever their sizes. A leaf is entered at the point
+ * of that shared edge nearest the straight line to the goal (keeping half a
+ * cell from its ends), as in {@link NavMesh}, so the path is near, but not
+ * always exactly, the shortest. The path crosses each edge straight over,
+ * between the centers of the cells on either side, and otherwise keeps half
+ * a cell inside each leaf, so it stays half a cell clear of every wall.
+ *
+ * The tree is built once from the walls. Unlike {@link Grid}, it has no
+ * stamps, so it does not see footprints stamped into the grid afterwards
+ * and goes stale once any are.
+ */
+public class QuadGrid {
+    /** The board width (in number of cells) */
+    private int width;
+    /** The board height (in number of cells) */
+    private int height;
+    /** The cell size (in physics units) */
+    private float tileSize;
+    /** The world bounds in physics units */
+    private Rectangle bounds;
+    /** The scaling factor between physics and screen coordinates */
+    private Vector2 scale;
+
+    /** The number of nodes in the tree */
+    private int nodeCount;
+    /** The number of leaves in the tree */
+    private int leafCount;
+    /** The left column of each node */
+    private int[] nodeX;
+    /** The bottom row of each node */
+    private int[] nodeY;
+    /** The side length of each node (in cells) */
+    private int[] nodeSize;
+    /** The first child of each node, or -1 for a leaf */
+    private int[] child;
+    /** Whether each leaf is a wall */
+    private boolean[] wall;
+
+    /** The frontier of the search */
+    private IntBinaryHeap open;
+    /** The cost to reach each leaf */
+    private float[] cost;
+    /** The point (in cells) where the search entered each leaf */
+    private float[] entryX;
+    /** The point (in cells) where the search entered each leaf */
+    private float[] entryY;
+    /** The leaf each leaf was entered from, or -1 for the start */
+    private int[] parent;
+    /** The search generation in which each leaf was reached */
+    private int[] seen;
+    /** The search generation in which each leaf was closed */
+    private int[] closed;
+    /** The current search generation */
+    private int generation;
+    /** The number of leaves expanded by the last query */
+    private int expanded;
+    /** The neighbours of the leaf being expanded */
+    private IntArray neighbors;
+    /** The leaves crossed by the last query, from the goal back to the start */
+    private IntArray corridor;
+
+    /**
+     * Creates a grid from the walls of a level
+     *
+     * Walls are the {@link InteriorModel} boxes, and they cover the same
+     * cells here as they do in a {@link Grid} of the same resolution.
+     *
+     * @param levelModel   The level model containing obstacles
+     * @param cellsPerUnit The resolution of the finest cells
+     */
+    public QuadGrid(LevelModel levelModel, float cellsPerUnit) {
+        FloatArray boxes = new FloatArray();
+        for (Obstacle obj : levelModel.objects) {
+            if (obj instanceof InteriorModel) {
+                InteriorModel box = (InteriorModel) obj;
+                boxes.add(box.getX(), box.getY(), box.getWidth(), box.getHeight());
+            }
+        }
+        initialize(levelModel.getBounds(), levelModel.getScale(), cellsPerUnit, boxes);
+    }
+
+    /**
+     * Creates a grid covering the given bounds with walls at the given boxes
+     *
+     * The boxes cover the same cells as in {@link Grid#Grid(Rectangle, float, FloatArray)}.
+     * Physics and screen coordinates are taken to be the same.
+     *
+     * @param bounds       The world bounds in physics units
+     * @param cellsPerUnit The resolution of the finest cells
+     * @param boxes        The walls, as center x, center y, width, height in turn
+     */
+    public QuadGrid(Rectangle bounds, float cellsPerUnit, FloatArray boxes) {
+        initialize(new Rectangle(bounds), new Vector2(1, 1), cellsPerUnit, boxes);
+    }
+
+    /**
+     * Sets the dimensions of the grid and builds the tree from wall boxes
+     */
+    private void initialize(Rectangle bounds, Vector2 scale, float cellsPerUnit, FloatArray boxes) {
+        this.bounds = bounds;
+        this.scale = scale;
+        this.tileSize = 1.0f / cellsPerUnit;
+        this.width = (int)(bounds.width * cellsPerUnit);
+        this.height = (int)(bounds.height * cellsPerUnit);
+
+        // Footprints use the same rounding as Grid
+        float epsilon = 0.001f;
+        IntArray rects = new IntArray();
+        for (int ii = 0; ii + 3 < boxes.size; ii += 4) {
+            float x = boxes.get(ii);
+            float y = boxes.get(ii + 1);
+            float w = boxes.get(ii + 2);
+            float h = boxes.get(ii + 3);
+            rects.add(physicsToGridX(x - w / 2 - epsilon), physicsToGridY(y - h / 2 - epsilon),
+                    physicsToGridX(x + w / 2 - epsilon), physicsToGridY(y + h / 2 - epsilon));
+        }
+        build(rects);
+    }
+
+    /**
+     * Returns the board width (in cells of the finest size)
+     *
+     * @return the board width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the board height (in cells of the finest size)
+     *
+     * @return the board height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of nodes in the tree (split nodes and leaves)
+     *
+     * @return the number of nodes in the tree
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns the number of leaves in the tree
+     *
+     * @return the number of leaves in the tree
+     */
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    /**
+     * Returns the number of leaves expanded by the last query
+     *
+     * @return the number of leaves expanded by the last query
+     */
+    public int getExpandedCount() {
+        return expanded;
+    }
+
+    /**
+     * Checks if grid coordinates are within bounds
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @return True if the coordinates are within the grid bounds
+     */
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * Returns true if the specified cell is a wall
+     *
+     * Cells out of bounds are walls.
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @return True if the cell is a wall
+     */
+    public boolean isWall(int x, int y) {
+        return !inBounds(x, y) || wall[getLeaf(x, y)];
+    }
+
+    /**
+     * Returns the leaf containing a cell, or -1 if it is out of bounds
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @return the leaf containing a cell
+     */
+    public int getLeaf(int x, int y) {
+        if (!inBounds(x, y)) {
+            return -1;
+        }
+        int node = 0;
+        while (child[node] >= 0) {
+            int half = nodeSize[node] >> 1;
+            int quadrant = (x >= nodeX[node] + half ? 1 : 0) + (y >= nodeY[node] + half ? 2 : 0);
+            node = child[node] + quadrant;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the left column of a leaf
+     *
+     * @param leaf The leaf
+     * @return the left column of a leaf
+     */
+    public int getLeafX(int leaf) {
+        return nodeX[leaf];
+    }
+
+    /**
+     * Returns the bottom row of a leaf
+     *
+     * @param leaf The leaf
+     * @return the bottom row of a leaf
+     */
+    public int getLeafY(int leaf) {
+        return nodeY[leaf];
+    }
+
+    /**
+     * Returns the side length of a leaf (in cells)
+     *
+     * @param leaf The leaf
+     * @return the side length of a leaf
+     */
+    public int getLeafSize(int leaf) {
+        return nodeSize[leaf];
+    }
+
+    /**
+     * Returns true if a leaf is a wall
+     *
+     * @param leaf The leaf
+     * @return true if a leaf is a wall
+     */
+    public boolean isWallLeaf(int leaf) {
+        return wall[leaf];
+    }
+
+    /**
+     * Finds the open leaves that share part of an edge with a leaf
+     *
+     * Leaves that only touch at a corner are not neighbours, so a path never
+     * squeezes between two walls that meet diagonally.
+     *
+     * @param leaf The leaf
+     * @param out  The array to hold the neighbours (cleared first)
+     */
+    public void getNeighbors(int leaf, IntArray out) {
+        out.clear();
+        int x0 = nodeX[leaf];
+        int y0 = nodeY[leaf];
+        int x1 = x0 + nodeSize[leaf] - 1;
+        int y1 = y0 + nodeSize[leaf] - 1;
+        collect(0, x0 - 1, y0, x0 - 1, y1, out);
+        collect(0, x1 + 1, y0, x1 + 1, y1, out);
+        collect(0, x0, y0 - 1, x1, y0 - 1, out);
+        collect(0, x0, y1 + 1, x1, y1 + 1, out);
+    }
+
+    /**
+     * Adds the open leaves below a node that overlap a rectangle of cells
+     */
+    private void collect(int node, int x0, int y0, int x1, int y1, IntArray out) {
+        int nx = nodeX[node];
+        int ny = nodeY[node];
+        int size = nodeSize[node];
+        if (x1 < nx || y1 < ny || x0 >= nx + size || y0 >= ny + size) {
+            return;
+        }
+        if (child[node] < 0) {
+            if (!wall[node]) {
+                out.add(node);
+            }
+            return;
+        }
+        for (int ii = 0; ii < 4; ii++) {
+            collect(child[node] + ii, x0, y0, x1, y1, out);
+        }
+    }
+
+    /**
+     * Finds a path between two cells
+     *
+     * The path is stored in out as (x,y) pairs in physics coordinates, from
+     * the center of the start cell to the center of the goal cell inclusive,
+     * with a point on either side of each edge it crosses between leaves. If
+     * there is no path, or either cell is a wall, out is left empty.
+     *
+     * @param startX The x grid coordinate of the start
+     * @param startY The y grid coordinate of the start
+     * @param goalX  The x grid coordinate of the goal
+     * @param goalY  The y grid coordinate of the goal
+     * @param out    The array to hold the path
+     * @return True if a path was found
+     */
+    public boolean findPath(int startX, int startY, int goalX, int goalY, FloatArray out) {
+        out.clear();
+        expanded = 0;
+        if (isWall(startX, startY) || isWall(goalX, goalY)) {
+            return false;
+        }
+        int start = getLeaf(startX, startY);
+        int goal = getLeaf(goalX, goalY);
+        float sx = startX + 0.5f;
+        float sy = startY + 0.5f;
+        float gx = goalX + 0.5f;
+        float gy = goalY + 0.5f;
+        if (!search(start, goal, sx, sy, gx, gy)) {
+            return false;
+        }
+
+        corridor.clear();
+        for (int leaf = goal; leaf != start; leaf = parent[leaf]) {
+            corridor.add(leaf);
+        }
+        addPoint(out, sx, sy);
+        int leaf = start;
+        for (int ii = corridor.size - 1; ii >= 0; ii--) {
+            // Cross each edge straight over, from the middle of a cell on one side to the other
+            int next = corridor.get(ii);
+            float x = entryX[next];
+            float y = entryY[next];
+            if (nodeX[next] == nodeX[leaf] + nodeSize[leaf]) {
+                addPoint(out, x - 0.5f, y);
+                addPoint(out, x + 0.5f, y);
+            } else if (nodeX[next] + nodeSize[next] == nodeX[leaf]) {
+                addPoint(out, x + 0.5f, y);
+                addPoint(out, x - 0.5f, y);
+            } else if (nodeY[next] == nodeY[leaf] + nodeSize[leaf]) {
+                addPoint(out, x, y - 0.5f);
+                addPoint(out, x, y + 0.5f);
+            } else {
+                addPoint(out, x, y + 0.5f);
+                addPoint(out, x, y - 0.5f);
+            }
+            leaf = next;
+        }
+        addPoint(out, gx, gy);
+        return true;
+    }
+
+    /**
+     * Runs A* over the open leaves between two points (in cells)
+     *
+     * @return True if the goal leaf was reached
+     */
+    private boolean search(int start, int goal, float startX, float startY, float goalX, float goalY) {
+        if (++generation == 0) {
+            Arrays.fill(seen, 0);
+            Arrays.fill(closed, 0);
+            generation = 1;
+        }
+        open.clear();
+        seen[start] = generation;
+        cost[start] = 0;
+        entryX[start] = startX;
+        entryY[start] = startY;
+        parent[start] = -1;
+        open.add(start, distance(startX, startY, goalX, goalY));
+
+        while (!open.isEmpty()) {
+            int leaf = open.pop();
+            if (leaf == goal) {
+                return true;
+            }
+            closed[leaf] = generation;
+            expanded++;
+            getNeighbors(leaf, neighbors);
+            float ex = entryX[leaf];
+            float ey = entryY[leaf];
+            for (int ii = 0; ii < neighbors.size; ii++) {
+                int next = neighbors.get(ii);
+                if (closed[next] == generation) {
+                    continue;
+                }
+                // The shared edge, less half a cell at each end
+                float lo, hi, x, y;
+                if (nodeX[next] + nodeSize[next] == nodeX[leaf] || nodeX[leaf] + nodeSize[leaf] == nodeX[next]) {
+                    x = Math.max(nodeX[leaf], nodeX[next]);
+                    lo = Math.max(nodeY[leaf], nodeY[next]) + 0.5f;
+                    hi = Math.min(nodeY[leaf] + nodeSize[leaf], nodeY[next] + nodeSize[next]) - 0.5f;
+                    y = ey;
+                    if (goalX != ex) {
+                        y += (goalY - ey) * (x - ex) / (goalX - ex);
+                    }
+                    y = Math.max(lo, Math.min(hi, y));
+                } else {
+                    y = Math.max(nodeY[leaf], nodeY[next]);
+                    lo = Math.max(nodeX[leaf], nodeX[next]) + 0.5f;
+                    hi = Math.min(nodeX[leaf] + nodeSize[leaf], nodeX[next] + nodeSize[next]) - 0.5f;
+                    x = ex;
+                    if (goalY != ey) {
+                        x += (goalX - ex) * (y - ey) / (goalY - ey);
+                    }
+                    x = Math.max(lo, Math.min(hi, x));
+                }
+                float g = cost[leaf] + distance(ex, ey, x, y);
+                if (seen[next] != generation || g < cost[next]) {
+                    seen[next] = generation;
+                    cost[next] = g;
+                    entryX[next] = x;
+                    entryY[next] = y;
+                    parent[next] = leaf;
+                    open.add(next, g + distance(x, y, goalX, goalY));
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends a point (in cells) to a path in physics coordinates, unless it repeats the last one
+     */
+    private void addPoint(FloatArray out, float x, float y) {
+        x = bounds.x + x * tileSize;
+        y = bounds.y + y * tileSize;
+        if (out.size < 2 || out.get(out.size - 2) != x || out.get(out.size - 1) != y) {
+            out.add(x, y);
+        }
+    }
+
+    /**
+     * Returns the distance between two points
+     */
+    private static float distance(float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        return (float)Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * Converts physics coordinates to grid coordinates
+     *
+     * @param physicsX The x coordinate in physics space
+     * @return The corresponding x coordinate in grid space
+     */
+    public int physicsToGridX(float physicsX) {
+        return (int)((physicsX - bounds.x) / tileSize);
+    }
+
+    /**
+     * Converts physics coordinates to grid coordinates
+     *
+     * @param physicsY The y coordinate in physics space
+     * @return The corresponding y coordinate in grid space
+     */
+    public int physicsToGridY(float physicsY) {
+        return (int)((physicsY - bounds.y) / tileSize);
+    }
+
+    /**
+     * Converts screen coordinates to grid coordinates
+     *
+     * @param screenX The x coordinate in screen space
+     * @return The corresponding x coordinate in grid space
+     */
+    public int screenToGridX(float screenX) {
+        return physicsToGridX(screenX / scale.x);
+    }
+
+    /**
+     * Converts screen coordinates to grid coordinates
+     *
+     * @param screenY The y coordinate in screen space
+     * @return The corresponding y coordinate in grid space
+     */
+    public int screenToGridY(float screenY) {
+        return physicsToGridY(screenY / scale.y);
+    }
+
+    /**
+     * Converts grid coordinates to the physics coordinates of the cell center
+     *
+     * @param gridX The x coordinate in grid space
+     * @return The x coordinate of the cell center in physics space
+     */
+    public float gridToPhysicsX(int gridX) {
+        return bounds.x + (gridX + 0.5f) * tileSize;
+    }
+
+    /**
+     * Converts grid coordinates to the physics coordinates of the cell center
+     *
+     * @param gridY The y coordinate in grid space
+     * @return The y coordinate of the cell center in physics space
+     */
+    public float gridToPhysicsY(int gridY) {
+        return bounds.y + (gridY + 0.5f) * tileSize;
+    }
+
+    /**
+     * Builds the tree from a list of wall rectangles
+     *
+     * The root is the smallest power-of-two square holding the map. Each
+     * node keeps the walls that overlap it; it becomes a wall leaf if one of
+     * them covers it (or it lies off the map), an open leaf if none do, and
+     * is split otherwise. Four leaves of the same kind are merged back into
+     * their parent, which catches squares covered by several walls together.
+     */
+    private void build(IntArray rects) {
+        int size = 1;
+        while (size < Math.max(width, height)) {
+            size <<= 1;
+        }
+        IntArray nodes = new IntArray();
+        IntArray active = new IntArray();
+        for (int ii = 0; ii + 3 < rects.size; ii += 4) {
+            active.add(ii);
+        }
+        nodes.add(0, 0, size, -1);
+        nodes.add(0);
+        split(0, rects, active, 0, active.size, nodes);
+
+        nodeCount = nodes.size / 5;
+        nodeX = new int[nodeCount];
+        nodeY = new int[nodeCount];
+        nodeSize = new int[nodeCount];
+        child = new int[nodeCount];
+        wall = new boolean[nodeCount];
+        leafCount = 0;
+        for (int ii = 0; ii < nodeCount; ii++) {
+            nodeX[ii] = nodes.get(5 * ii);
+            nodeY[ii] = nodes.get(5 * ii + 1);
+            nodeSize[ii] = nodes.get(5 * ii + 2);
+            child[ii] = nodes.get(5 * ii + 3);
+            wall[ii] = nodes.get(5 * ii + 4) != 0;
+            if (child[ii] < 0) {
+                leafCount++;
+            }
+        }
+
+        open = new IntBinaryHeap(nodeCount);
+        cost = new float[nodeCount];
+        entryX = new float[nodeCount];
+        entryY = new float[nodeCount];
+        parent = new int[nodeCount];
+        seen = new int[nodeCount];
+        closed = new int[nodeCount];
+        neighbors = new IntArray();
+        corridor = new IntArray();
+    }
+
+    /**
+     * Classifies a node, splitting it if it holds both walls and open cells
+     *
+     * Nodes are stored in nodes as x, y, size, first child and wall flag in
+     * turn. The walls overlapping the node are active[from, to); the walls of
+     * its children are appended to active after them, and removed again.
+     *
+     * @return True if the node ended up a leaf
+     */
+    private boolean split(int node, IntArray rects, IntArray active, int from, int to, IntArray nodes) {
+        int x0 = nodes.get(5 * node);
+        int y0 = nodes.get(5 * node + 1);
+        int size = nodes.get(5 * node + 2);
+        int x1 = x0 + size - 1;
+        int y1 = y0 + size - 1;
+
+        if (x0 >= width || y0 >= height) {
+            nodes.set(5 * node + 4, 1);
+            return true;
+        }
+        boolean inside = x1 < width && y1 < height;
+        int start = active.size;
+        for (int ii = from; ii < to; ii++) {
+            int rect = active.get(ii);
+            int rx0 = rects.get(rect);
+            int ry0 = rects.get(rect + 1);
+            int rx1 = rects.get(rect + 2);
+            int ry1 = rects.get(rect + 3);
+            if (rx0 <= x0 && ry0 <= y0 && rx1 >= x1 && ry1 >= y1) {
+                active.size = start;
+                nodes.set(5 * node + 4, 1);
+                return true;
+            }
+            if (rx0 <= x1 && ry0 <= y1 && rx1 >= x0 && ry1 >= y0) {
+                active.add(rect);
+            }
+        }
+        int end = active.size;
+        if (end == start && inside) {
+            return true;
+        }
+        if (size == 1) {
+            // A single cell in bounds overlapped by a wall is covered by it
+            active.size = start;
+            nodes.set(5 * node + 4, 1);
+            return true;
+        }
+
+        int half = size >> 1;
+        int first = nodes.size / 5;
+        nodes.set(5 * node + 3, first);
+        for (int ii = 0; ii < 4; ii++) {
+            nodes.add(x0 + (ii & 1) * half, y0 + (ii >> 1) * half, half, -1);
+            nodes.add(0);
+        }
+        boolean leaves = true;
+        for (int ii = 0; ii < 4; ii++) {
+            leaves &= split(first + ii, rects, active, start, end, nodes);
+        }
+        active.size = start;
+
+        // Merge four leaves of the same kind (they are the last nodes added)
+        int kind = nodes.get(5 * first + 4);
+        for (int ii = 1; ii < 4 && leaves; ii++) {
+            leaves = nodes.get(5 * (first + ii) + 4) == kind;
+        }
+        if (leaves) {
+            nodes.size = 5 * first;
+            nodes.set(5 * node + 3, -1);
+            nodes.set(5 * node + 4, kind);
+        }
+        return leaves;
+    }
+}
@@ -6,6 +6,8 @@ public class SecurityCamera extends DudeModel {
 
     private boolean blinded;
     private int blindTimer;
+    /** The cells this camera can see (null until the grid is known) */
+    private VisibilityMap visibility;
 
 
     public SecurityCamera(String type) {
@@ -29,5 +31,14 @@ public class SecurityCamera extends DudeModel {
 
     public void setBlindTimer(int value){blindTimer = value;}
 
+    /** The cells this camera can see, recomputed only when the walls change */
+    public VisibilityMap getVisibility() {
+        return visibility;
+    }
+
+    public void setVisibility(VisibilityMap map) {
+        visibility = map;
+    }
+
 
 }
@@ -0,0 +1,250 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.utils.IntArray;
+
+import java.util.Arrays;
+
+/**
+ * The cells of a {@link Grid} that one viewer (a guard or camera) can see
+ *
+ * Visibility is computed with symmetric shadowcasting: each quadrant around
+ * the viewer is scanned row by row, and walls narrow the range of slopes that
+ * later rows can see. A floor cell is only visible if its center is inside
+ * that range, so the viewer sees a cell exactly when that cell would see the
+ * viewer. Walls are visible where they bound the view. Slopes are kept as
+ * integer fractions, so there is no rounding at the edges of a shadow. The
+ * result is limited to a radius all around the viewer.
+ *
+ * The result is a bit layer with the same layout as the grid's walls, so that
+ * an occlusion test is a single bit lookup. It is only recomputed when the
+ * viewer changes cell or when the walls change, so a guard walking down a
+ * corridor keeps its map for several frames at a time. The map does not
+ * depend on which way the viewer faces: a guard's view cone is tested
+ * exactly on each point looked up (see {@link GuardPerception}), which keeps
+ * the edges of the cone where the guard actually faces.
+ */
+public class VisibilityMap {
+    /** The grid the map covers */
+    private Grid grid;
+    /** The visible cells (row-major, each row padded to a whole word) */
+    private long[] visible;
+    /** The number of 64-bit words in one row */
+    private int wordsPerRow;
+    /** The squared view radius (in cells) */
+    private float radius2;
+    /** The number of rows scanned from the viewer in each quadrant */
+    private int depth;
+
+    /** The x grid coordinate of the viewer in the last computation */
+    private int originX;
+    /** The y grid coordinate of the viewer in the last computation */
+    private int originY;
+    /** The wall version of the grid in the last computation */
+    private int wallVersion;
+    /** The lowest row with visible cells (to clear only those rows) */
+    private int minRow;
+    /** The highest row with visible cells (to clear only those rows) */
+    private int maxRow;
+    /** The number of times the map has been computed */
+    private int computeCount;
+
+    /** The rows waiting to be scanned (depth, start slope, end slope as fractions) */
+    private IntArray rows = new IntArray();
+
+    /**
+     * Creates an empty visibility map for the given grid
+     *
+     * @param grid   The grid to cover
+     * @param radius The view distance (in physics units)
+     */
+    public VisibilityMap(Grid grid, float radius) {
+        this.grid = grid;
+        this.wordsPerRow = grid.getWordsPerRow();
+        this.visible = new long[wordsPerRow * grid.getHeight()];
+        float cells = radius / (grid.gridToPhysicsX(1) - grid.gridToPhysicsX(0));
+        this.radius2 = cells * cells;
+        this.depth = (int)Math.ceil(cells);
+        invalidate();
+    }
+
+    /**
+     * Returns the grid the map covers
+     *
+     * @return the grid the map covers
+     */
+    public Grid getGrid() {
+        return grid;
+    }
+
+    /**
+     * Returns the number of times the map has been computed
+     *
+     * @return the number of times the map has been computed
+     */
+    public int getComputeCount() {
+        return computeCount;
+    }
+
+    /**
+     * Forces the map to be recomputed on the next update
+     */
+    public void invalidate() {
+        originX = Integer.MIN_VALUE;
+        wallVersion = -1;
+    }
+
+    /**
+     * Moves the viewer, recomputing the map if its cell or the walls changed
+     *
+     * @param x The x coordinate of the viewer (in physics units)
+     * @param y The y coordinate of the viewer (in physics units)
+     * @return true if the map was recomputed
+     */
+    public boolean update(float x, float y) {
+        int cellX = grid.physicsToGridX(x);
+        int cellY = grid.physicsToGridY(y);
+        if (cellX == originX && cellY == originY && wallVersion == grid.getWallVersion()) {
+            return false;
+        }
+        originX = cellX;
+        originY = cellY;
+        wallVersion = grid.getWallVersion();
+        compute();
+        return true;
+    }
+
+    /**
+     * Returns true if the viewer can see the given cell
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     * @return true if the viewer can see the given cell
+     */
+    public boolean isVisible(int x, int y) {
+        return grid.inBounds(x, y) && (visible[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Returns true if the viewer can see the cell containing the given point
+     *
+     * @param x The x coordinate (in physics units)
+     * @param y The y coordinate (in physics units)
+     * @return true if the viewer can see the cell containing the given point
+     */
+    public boolean isVisible(float x, float y) {
+        return isVisible(grid.physicsToGridX(x), grid.physicsToGridY(y));
+    }
+
+    /**
+     * Adds the visible cells to a mask with the layout of the grid's bit layers
+     *
+     * Adding the maps of every viewer gives the cells some viewer can see,
+     * for danger zone overlays or for searches that avoid being seen.
+     *
+     * @param mask The mask to add to (one word per 64 cells of each row)
+     */
+    public void addTo(long[] mask) {
+        if (minRow > maxRow) {
+            return;
+        }
+        for (int ii = minRow * wordsPerRow; ii < (maxRow + 1) * wordsPerRow; ii++) {
+            mask[ii] |= visible[ii];
+        }
+    }
+
+    /**
+     * Recomputes the visible cells from the current viewer
+     */
+    private void compute() {
+        computeCount++;
+        if (minRow <= maxRow) {
+            Arrays.fill(visible, minRow * wordsPerRow, (maxRow + 1) * wordsPerRow, 0L);
+        }
+        minRow = Integer.MAX_VALUE;
+        maxRow = Integer.MIN_VALUE;
+        if (!grid.inBounds(originX, originY)) {
+            return;
+        }
+        reveal(originX, originY);
+        for (int quadrant = 0; quadrant < 4; quadrant++) {
+            scan(quadrant);
+        }
+    }
+
+    /**
+     * Scans one quadrant about the viewer
+     *
+     * A row at depth d covers the columns whose slope (column / depth) is
+     * between its start and end slopes. The row below a floor cell that
+     * borders a wall starts or ends at the slope of that cell's edge, so
+     * each gap between walls continues as its own row.
+     *
+     * @param quadrant The quadrant (0 up, 1 down, 2 right, 3 left)
+     */
+    private void scan(int quadrant) {
+        rows.clear();
+        rows.add(1, -1, 1, 1);
+        rows.add(1);
+        while (rows.size > 0) {
+            int endDen = rows.pop();
+            int endNum = rows.pop();
+            int startDen = rows.pop();
+            int startNum = rows.pop();
+            int row = rows.pop();
+            if (row > depth) {
+                continue;
+            }
+
+            // Round the start up and the end down, with ties toward the row's middle
+            int minCol = (int)Math.floorDiv(2L * row * startNum + startDen, 2L * startDen);
+            int maxCol = (int)-Math.floorDiv(-(2L * row * endNum - endDen), 2L * endDen);
+            boolean started = false;
+            boolean wasWall = false;
+            for (int col = minCol; col <= maxCol; col++) {
+                int x = quadrant < 2 ? originX + col : originX + (quadrant == 2 ? row : -row);
+                int y = quadrant < 2 ? originY + (quadrant == 0 ? row : -row) : originY + col;
+                boolean wall = !grid.inBounds(x, y) || grid.isWall(x, y);
+                boolean symmetric = (long)col * startDen >= (long)row * startNum
+                        && (long)col * endDen <= (long)row * endNum;
+                if (wall || symmetric) {
+                    reveal(x, y);
+                }
+                if (started && wasWall && !wall) {
+                    startNum = 2 * col - 1;
+                    startDen = 2 * row;
+                }
+                if (started && !wasWall && wall) {
+                    rows.add(row + 1, startNum, startDen, 2 * col - 1);
+                    rows.add(2 * row);
+                }
+                started = true;
+                wasWall = wall;
+            }
+            if (started && !wasWall) {
+                rows.add(row + 1, startNum, startDen, endNum);
+                rows.add(endDen);
+            }
+        }
+    }
+
+    /**
+     * Marks a cell as visible if it is in bounds and in range
+     *
+     * @param x The x grid coordinate
+     * @param y The y grid coordinate
+     */
+    private void reveal(int x, int y) {
+        if (!grid.inBounds(x, y)) {
+            return;
+        }
+        float dx = x - originX;
+        float dy = y - originY;
+        float distance2 = dx * dx + dy * dy;
+        if (distance2 > radius2) {
+            return;
+        }
+        visible[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+        minRow = Math.min(minRow, y);
+        maxRow = Math.max(maxRow, y);
+    }
+}
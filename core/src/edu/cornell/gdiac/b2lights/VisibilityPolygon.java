@@ -0,0 +1,394 @@
+package edu.cornell.gdiac.b2lights;
+
+import com.badlogic.gdx.math.Rectangle;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.FloatArray;
+import com.badlogic.gdx.utils.IntArray;
+import edu.cornell.gdiac.physics.obstacle.Obstacle;
+
+import java.util.Arrays;
+
+/**
+ * Exact visibility polygons computed from the level's wall segments
+ *
+ * A query returns the region a viewer can see within a radius, as a polygon
+ * in physics coordinates. Unlike the cone lights (which cast a fixed number of
+ * rays) it has a vertex at every wall corner that bounds the view, so it never
+ * misses a gap between two rays.
+ *
+ * The polygon is found with an angular sweep. The walls near the viewer are
+ * fetched from a bucket grid, so the cost depends on the number of nearby
+ * walls and not on the size of the level. Their endpoints are sorted by angle
+ * about the viewer, and a ray is swept around through them while keeping the
+ * set of segments it crosses. At each endpoint the nearest crossed segment
+ * before and after the endpoint gives the polygon's vertices there. A square
+ * of the query radius around the viewer is added as walls, so that every ray
+ * hits something. Sorting takes O(n log n) for n nearby segments; the nearest
+ * segment is found by scanning the crossed set, which is small in practice.
+ *
+ * The walls are fixed when the object is built, and each thread sweeps with
+ * its own workspace, so queries may run on several threads at once.
+ */
+public class VisibilityPolygon {
+    /** The side of a bucket of the wall lookup grid (in physics units) */
+    private static final float BUCKET_SIZE = 4.0f;
+    /** The tolerance for points that should be the same */
+    private static final float EPSILON = 1.0e-4f;
+
+    /**
+     * The scratch space of one sweep
+     */
+    private static class Sweep {
+        /** The search generation, to tell if a segment was already fetched */
+        int generation;
+        /** The generation in which each segment was last fetched */
+        int[] fetched = new int[0];
+        /** The nearby segments, relative to the viewer, oriented counterclockwise (x0,y0,x1,y1) */
+        FloatArray local = new FloatArray();
+        /** The angle at which each nearby segment starts, then ends */
+        FloatArray angles = new FloatArray();
+        /** The endpoint events, as a sortable angle key and an event index */
+        long[] events = new long[0];
+        /** The nearby segments crossed by the ray */
+        IntArray active = new IntArray();
+    }
+
+    /** The wall segments (x0, y0, x1, y1 each) */
+    private float[] segments;
+    /** The left edge of the lookup grid */
+    private float originX;
+    /** The bottom edge of the lookup grid */
+    private float originY;
+    /** The number of bucket columns */
+    private int columns;
+    /** The number of bucket rows */
+    private int rows;
+    /** The first entry of each bucket (the bucket of b is [first[b], first[b+1])) */
+    private int[] first;
+    /** The segments in each bucket */
+    private int[] entries;
+    /** The workspace of each thread */
+    private ThreadLocal<Sweep> sweeps = new ThreadLocal<Sweep>();
+
+    /**
+     * Creates the visibility engine from the walls of a level
+     *
+     * Walls are the {@link InteriorModel} boxes and the {@link ExteriorModel}
+     * polygons.
+     *
+     * @param levelModel The level model containing obstacles
+     */
+    public VisibilityPolygon(LevelModel levelModel) {
+        Array<float[]> walls = new Array<float[]>();
+        for (Obstacle obj : levelModel.objects) {
+            if (obj instanceof InteriorModel) {
+                InteriorModel wall = (InteriorModel) obj;
+                float x0 = wall.getX() - wall.getWidth() / 2;
+                float y0 = wall.getY() - wall.getHeight() / 2;
+                float x1 = wall.getX() + wall.getWidth() / 2;
+                float y1 = wall.getY() + wall.getHeight() / 2;
+                walls.add(new float[] {x0, y0, x1, y0, x1, y1, x0, y1});
+            } else if (obj instanceof ExteriorModel) {
+                // The physics body is a fan of triangles (6 floats each) about the body origin
+                float[] verts = ((ExteriorModel) obj).getTriangles();
+                for (int ii = 0; ii + 6 <= verts.length; ii += 6) {
+                    float[] tri = new float[6];
+                    for (int jj = 0; jj < 6; jj += 2) {
+                        tri[jj] = verts[ii + jj] + obj.getX();
+                        tri[jj + 1] = verts[ii + jj + 1] + obj.getY();
+                    }
+                    walls.add(tri);
+                }
+            }
+        }
+        build(levelModel.getBounds(), walls);
+    }
+
+    /**
+     * Creates the visibility engine from a list of walls
+     *
+     * Each wall is a polygon given as a flat array of vertices; its edges
+     * block the view.
+     *
+     * @param bounds The level bounds (in physics coordinates)
+     * @param walls  The walls (in physics coordinates)
+     */
+    public VisibilityPolygon(Rectangle bounds, Array<float[]> walls) {
+        build(bounds, walls);
+    }
+
+    /**
+     * Returns the number of wall segments
+     *
+     * @return the number of wall segments
+     */
+    public int getSegmentCount() {
+        return segments.length / 4;
+    }
+
+    /**
+     * Stores the wall edges and sorts them into buckets
+     *
+     * @param bounds The level bounds (in physics coordinates)
+     * @param walls  The walls (in physics coordinates)
+     */
+    private void build(Rectangle bounds, Array<float[]> walls) {
+        FloatArray edges = new FloatArray();
+        for (float[] wall : walls) {
+            for (int ii = 0; ii + 1 < wall.length; ii += 2) {
+                int jj = (ii + 2) % wall.length;
+                edges.add(wall[ii], wall[ii + 1], wall[jj], wall[jj + 1]);
+            }
+        }
+        segments = edges.toArray();
+
+        originX = bounds.x;
+        originY = bounds.y;
+        columns = Math.max(1, (int)Math.ceil(bounds.width / BUCKET_SIZE));
+        rows = Math.max(1, (int)Math.ceil(bounds.height / BUCKET_SIZE));
+        first = new int[columns * rows + 1];
+
+        // Count the entries of each bucket, then fill them in
+        for (int pass = 0; pass < 2; pass++) {
+            int[] next = pass == 0 ? null : Arrays.copyOf(first, first.length - 1);
+            for (int ss = 0; ss < segments.length; ss += 4) {
+                int c0 = column(Math.min(segments[ss], segments[ss + 2]));
+                int c1 = column(Math.max(segments[ss], segments[ss + 2]));
+                int r0 = row(Math.min(segments[ss + 1], segments[ss + 3]));
+                int r1 = row(Math.max(segments[ss + 1], segments[ss + 3]));
+                for (int r = r0; r <= r1; r++) {
+                    for (int c = c0; c <= c1; c++) {
+                        if (pass == 0) {
+                            first[r * columns + c + 1]++;
+                        } else {
+                            entries[next[r * columns + c]++] = ss / 4;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                for (int bb = 0; bb < columns * rows; bb++) {
+                    first[bb + 1] += first[bb];
+                }
+                entries = new int[first[columns * rows]];
+            }
+        }
+    }
+
+    /**
+     * Returns the bucket column containing an x coordinate (clamped to the grid)
+     */
+    private int column(float x) {
+        return Math.max(0, Math.min(columns - 1, (int)Math.floor((x - originX) / BUCKET_SIZE)));
+    }
+
+    /**
+     * Returns the bucket row containing a y coordinate (clamped to the grid)
+     */
+    private int row(float y) {
+        return Math.max(0, Math.min(rows - 1, (int)Math.floor((y - originY) / BUCKET_SIZE)));
+    }
+
+    /**
+     * Computes the region visible from a point within a radius
+     *
+     * The result is a polygon in counterclockwise order around the viewer, as
+     * x,y pairs. The viewer can see every point inside it. Where nothing
+     * blocks the view, the polygon follows a square of the given radius, so
+     * a caller that wants a round range should also test the distance.
+     *
+     * @param x      The x coordinate of the viewer (in physics units)
+     * @param y      The y coordinate of the viewer (in physics units)
+     * @param radius The view distance (in physics units)
+     * @param out    The array to hold the polygon
+     */
+    public void compute(float x, float y, float radius, FloatArray out) {
+        out.clear();
+        Sweep sweep = sweeps.get();
+        if (sweep == null) {
+            sweep = new Sweep();
+            sweeps.set(sweep);
+        }
+        gather(sweep, x, y, radius);
+
+        // Sort the endpoints by angle
+        int count = sweep.local.size / 4;
+        if (sweep.events.length < 2 * count) {
+            sweep.events = new long[4 * count];
+        }
+        long[] events = sweep.events;
+        float[] angles = sweep.angles.items;
+        IntArray active = sweep.active;
+        active.clear();
+        for (int ss = 0; ss < count; ss++) {
+            events[2 * ss] = ((long)sortKey(angles[2 * ss]) << 32) | (2 * ss);
+            events[2 * ss + 1] = ((long)sortKey(angles[2 * ss + 1]) << 32) | (2 * ss + 1);
+            if (angles[2 * ss] > angles[2 * ss + 1]) {
+                // This segment crosses the start of the sweep (the negative x axis)
+                active.add(ss);
+            }
+        }
+        Arrays.sort(events, 0, 2 * count);
+
+        // Sweep the ray around, one angle at a time
+        float[] local = sweep.local.items;
+        int ee = 0;
+        while (ee < 2 * count) {
+            float angle = angles[(int)events[ee]];
+            float dx = (float)Math.cos(angle);
+            float dy = (float)Math.sin(angle);
+            float before = nearest(local, active, dx, dy);
+            int group = ee;
+            while (ee < 2 * count && angles[(int)events[ee]] == angle) {
+                int event = (int)events[ee++];
+                if ((event & 1) == 1) {
+                    active.removeValue(event >> 1);
+                }
+            }
+            for (int ii = group; ii < ee; ii++) {
+                int event = (int)events[ii];
+                if ((event & 1) == 0) {
+                    active.add(event >> 1);
+                }
+            }
+            float after = nearest(local, active, dx, dy);
+            addVertex(out, x + before * dx, y + before * dy);
+            addVertex(out, x + after * dx, y + after * dy);
+        }
+        if (out.size >= 4 && Math.abs(out.get(0) - out.get(out.size - 2)) < EPSILON
+                && Math.abs(out.get(1) - out.get(out.size - 1)) < EPSILON) {
+            out.size -= 2;
+        }
+    }
+
+    /**
+     * Returns true if a point is inside a polygon from {@link #compute}
+     *
+     * @param polygon The polygon, as x,y pairs
+     * @param x       The x coordinate of the point
+     * @param y       The y coordinate of the point
+     * @return true if the point is inside the polygon
+     */
+    public static boolean contains(FloatArray polygon, float x, float y) {
+        boolean inside = false;
+        float[] verts = polygon.items;
+        for (int ii = 0, jj = polygon.size - 2; ii < polygon.size; jj = ii, ii += 2) {
+            float xi = verts[ii], yi = verts[ii + 1];
+            float xj = verts[jj], yj = verts[jj + 1];
+            if ((yi > y) != (yj > y) && x < xi + (y - yi) * (xj - xi) / (yj - yi)) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Fetches the segments near the viewer, relative to it and oriented counterclockwise
+     *
+     * Segments that lie on a line through the viewer are dropped, as the
+     * segments they touch hide them. The square of the radius is added last.
+     *
+     * @param sweep  The workspace of this thread
+     * @param x      The x coordinate of the viewer (in physics units)
+     * @param y      The y coordinate of the viewer (in physics units)
+     * @param radius The view distance (in physics units)
+     */
+    private void gather(Sweep sweep, float x, float y, float radius) {
+        sweep.local.clear();
+        sweep.angles.clear();
+        if (sweep.fetched.length < segments.length / 4) {
+            sweep.fetched = new int[segments.length / 4];
+        }
+        sweep.generation++;
+
+        int c0 = column(x - radius), c1 = column(x + radius);
+        int r0 = row(y - radius), r1 = row(y + radius);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int bucket = r * columns + c;
+                for (int ii = first[bucket]; ii < first[bucket + 1]; ii++) {
+                    int seg = entries[ii];
+                    if (sweep.fetched[seg] == sweep.generation) {
+                        continue;
+                    }
+                    sweep.fetched[seg] = sweep.generation;
+                    int ss = 4 * seg;
+                    float x0 = segments[ss] - x, y0 = segments[ss + 1] - y;
+                    float x1 = segments[ss + 2] - x, y1 = segments[ss + 3] - y;
+                    if (Math.max(x0, x1) >= -radius && Math.min(x0, x1) <= radius
+                            && Math.max(y0, y1) >= -radius && Math.min(y0, y1) <= radius) {
+                        addSegment(sweep, x0, y0, x1, y1);
+                    }
+                }
+            }
+        }
+        addSegment(sweep, -radius, -radius, radius, -radius);
+        addSegment(sweep, radius, -radius, radius, radius);
+        addSegment(sweep, radius, radius, -radius, radius);
+        addSegment(sweep, -radius, radius, -radius, -radius);
+    }
+
+    /**
+     * Adds a segment (relative to the viewer) to the sweep, oriented counterclockwise
+     */
+    private static void addSegment(Sweep sweep, float x0, float y0, float x1, float y1) {
+        float cross = x0 * y1 - y0 * x1;
+        if (Math.abs(cross) < EPSILON * EPSILON) {
+            return;
+        }
+        if (cross < 0) {
+            float tx = x0, ty = y0;
+            x0 = x1;
+            y0 = y1;
+            x1 = tx;
+            y1 = ty;
+        }
+        sweep.local.add(x0, y0, x1, y1);
+        sweep.angles.add((float)Math.atan2(y0, x0), (float)Math.atan2(y1, x1));
+    }
+
+    /**
+     * Returns the distance to the nearest segment crossed by a ray from the viewer
+     *
+     * @param local  The nearby segments, relative to the viewer
+     * @param active The segments the ray crosses
+     * @param dx     The x component of the ray direction
+     * @param dy     The y component of the ray direction
+     * @return the distance to the nearest segment
+     */
+    private static float nearest(float[] local, IntArray active, float dx, float dy) {
+        float best = Float.MAX_VALUE;
+        for (int ii = 0; ii < active.size; ii++) {
+            int ss = 4 * active.get(ii);
+            float x0 = local[ss], y0 = local[ss + 1];
+            float ex = local[ss + 2] - x0, ey = local[ss + 3] - y0;
+            float denom = dx * ey - dy * ex;
+            if (denom != 0) {
+                float distance = (x0 * ey - y0 * ex) / denom;
+                if (distance >= 0 && distance < best) {
+                    best = distance;
+                }
+            }
+        }
+        return best == Float.MAX_VALUE ? 0 : best;
+    }
+
+    /**
+     * Adds a vertex to the polygon unless it repeats the last one
+     */
+    private static void addVertex(FloatArray out, float x, float y) {
+        if (out.size >= 2 && Math.abs(out.get(out.size - 2) - x) < EPSILON
+                && Math.abs(out.get(out.size - 1) - y) < EPSILON) {
+            return;
+        }
+        out.add(x, y);
+    }
+
+    /**
+     * Returns an int that orders like the given angle
+     */
+    private static int sortKey(float angle) {
+        int bits = Float.floatToIntBits(angle);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+}
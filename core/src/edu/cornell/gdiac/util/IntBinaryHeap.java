@@ -0,0 +1,268 @@
+/*
+ * IntBinaryHeap.java
+ *
+ * Java's PriorityQueue only holds objects, so every insertion into a search
+ * frontier boxes an Integer (or worse, allocates a node object).  Pathfinding
+ * pushes thousands of entries a frame, which is a lot of garbage for nothing.
+ *
+ * This class is a binary min-heap over int handles in a fixed range [0,capacity).
+ * Each handle can be in the heap at most once, and the heap remembers where every
+ * handle lives, so decreasing a key is O(log n) without a linear search.  All of
+ * the storage is allocated up front.
+ */
+package edu.cornell.gdiac.util;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of int handles keyed by float priorities.
+ *
+ * Entries are ordered by key, and entries with equal keys are ordered by a
+ * secondary tie-break value (smaller first).  Adding a handle that is already
+ * in the heap updates its priority in place.
+ */
+public class IntBinaryHeap {
+	/** The handles in heap order */
+	private int[] heap;
+	/** The primary key of the entry at each heap position */
+	private float[] keys;
+	/** The tie-break value of the entry at each heap position */
+	private float[] ties;
+	/** The heap position of each handle, or -1 if it is not in the heap */
+	private int[] position;
+	/** The number of entries in the heap */
+	private int size;
+
+	/**
+	 * Creates an empty heap for handles in the range [0,capacity)
+	 *
+	 * @param capacity	the number of distinct handles
+	 */
+	public IntBinaryHeap(int capacity) {
+		heap = new int[capacity];
+		keys = new float[capacity];
+		ties = new float[capacity];
+		position = new int[capacity];
+		Arrays.fill(position, -1);
+		size = 0;
+	}
+
+	/**
+	 * Returns the number of distinct handles this heap supports
+	 *
+	 * @return the number of distinct handles this heap supports
+	 */
+	public int capacity() {
+		return position.length;
+	}
+
+	/**
+	 * Returns the number of entries in the heap
+	 *
+	 * @return the number of entries in the heap
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if the heap has no entries
+	 *
+	 * @return true if the heap has no entries
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns true if the handle is currently in the heap
+	 *
+	 * @param handle	the handle to check
+	 *
+	 * @return true if the handle is currently in the heap
+	 */
+	public boolean contains(int handle) {
+		return position[handle] >= 0;
+	}
+
+	/**
+	 * Removes all entries from the heap
+	 *
+	 * This is proportional to the current size, not the capacity.
+	 */
+	public void clear() {
+		for (int ii = 0; ii < size; ii++) {
+			position[heap[ii]] = -1;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Adds a handle with the given key, or updates it if already present
+	 *
+	 * @param handle	the handle to add
+	 * @param key		the priority (smaller is popped first)
+	 */
+	public void add(int handle, float key) {
+		add(handle, key, 0);
+	}
+
+	/**
+	 * Adds a handle with the given key, or updates it if already present
+	 *
+	 * @param handle	the handle to add
+	 * @param key		the priority (smaller is popped first)
+	 * @param tie		the tie-break for equal keys (smaller is popped first)
+	 */
+	public void add(int handle, float key, float tie) {
+		int pos = position[handle];
+		if (pos < 0) {
+			pos = size++;
+			heap[pos] = handle;
+			position[handle] = pos;
+			keys[pos] = key;
+			ties[pos] = tie;
+			siftUp(pos);
+		} else {
+			boolean smaller = less(key, tie, keys[pos], ties[pos]);
+			keys[pos] = key;
+			ties[pos] = tie;
+			if (smaller) {
+				siftUp(pos);
+			} else {
+				siftDown(pos);
+			}
+		}
+	}
+
+	/**
+	 * Returns the handle with the smallest key without removing it
+	 *
+	 * @return the handle with the smallest key
+	 */
+	public int peek() {
+		return heap[0];
+	}
+
+	/**
+	 * Returns the smallest key in the heap
+	 *
+	 * @return the smallest key in the heap
+	 */
+	public float peekKey() {
+		return keys[0];
+	}
+
+	/**
+	 * Returns the tie-break value of the smallest entry in the heap
+	 *
+	 * @return the tie-break value of the smallest entry in the heap
+	 */
+	public float peekTie() {
+		return ties[0];
+	}
+
+	/**
+	 * Removes the handle from the heap if it is present
+	 *
+	 * @param handle	the handle to remove
+	 */
+	public void remove(int handle) {
+		int pos = position[handle];
+		if (pos < 0) {
+			return;
+		}
+		position[handle] = -1;
+		size--;
+		if (pos < size) {
+			float key = keys[pos];
+			float tie = ties[pos];
+			move(size, pos);
+			if (less(keys[pos], ties[pos], key, tie)) {
+				siftUp(pos);
+			} else {
+				siftDown(pos);
+			}
+		}
+	}
+
+	/**
+	 * Removes and returns the handle with the smallest key
+	 *
+	 * @return the handle with the smallest key
+	 */
+	public int pop() {
+		int result = heap[0];
+		position[result] = -1;
+		size--;
+		if (size > 0) {
+			move(size, 0);
+			siftDown(0);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if the first (key,tie) pair orders before the second
+	 */
+	private static boolean less(float k1, float t1, float k2, float t2) {
+		return k1 < k2 || (k1 == k2 && t1 < t2);
+	}
+
+	/**
+	 * Moves the entry at heap position from to heap position to
+	 */
+	private void move(int from, int to) {
+		heap[to] = heap[from];
+		keys[to] = keys[from];
+		ties[to] = ties[from];
+		position[heap[to]] = to;
+	}
+
+	/**
+	 * Restores the heap order by moving the entry at pos toward the root
+	 */
+	private void siftUp(int pos) {
+		int handle = heap[pos];
+		float key = keys[pos];
+		float tie = ties[pos];
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (!less(key, tie, keys[parent], ties[parent])) {
+				break;
+			}
+			move(parent, pos);
+			pos = parent;
+		}
+		heap[pos] = handle;
+		keys[pos] = key;
+		ties[pos] = tie;
+		position[handle] = pos;
+	}
+
+	/**
+	 * Restores the heap order by moving the entry at pos toward the leaves
+	 */
+	private void siftDown(int pos) {
+		int handle = heap[pos];
+		float key = keys[pos];
+		float tie = ties[pos];
+		int half = size >>> 1;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			int right = child + 1;
+			if (right < size && less(keys[right], ties[right], keys[child], ties[child])) {
+				child = right;
+			}
+			if (!less(keys[child], ties[child], key, tie)) {
+				break;
+			}
+			move(child, pos);
+			pos = child;
+		}
+		heap[pos] = handle;
+		keys[pos] = key;
+		ties[pos] = tie;
+		position[handle] = pos;
+	}
+}